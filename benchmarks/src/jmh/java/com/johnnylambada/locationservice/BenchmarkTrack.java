@@ -0,0 +1,48 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.Random;
+
+/**
+ * A deterministic, jittery walk shared by the benchmarks, so every run feeds the same fixes.
+ */
+final class BenchmarkTrack {
+
+    static final int SIZE = 4096; // power of two, indices wrap with SIZE - 1
+    static final int MASK = SIZE - 1;
+
+    final double[] latitude = new double[SIZE];
+    final double[] longitude = new double[SIZE];
+    final float[] accuracy = new float[SIZE];
+    final float[] speed = new float[SIZE];
+    final float[] bearing = new float[SIZE];
+    final Location[] locations = new Location[SIZE];
+
+    BenchmarkTrack(){
+        final Random random = new Random(42);
+        double lat = 37.7749;
+        double lon = -122.4194;
+        double heading = 0;
+        for (int i = 0; i < SIZE; i++) {
+            heading += random.nextGaussian() * 0.2;
+            final double step = 1.4 + random.nextGaussian() * 0.3; // meters, walking at 1 Hz
+            lat += Math.cos(heading) * step / 111195.0;
+            lon += Math.sin(heading) * step / (111195.0 * Math.cos(Math.toRadians(lat)));
+            latitude[i] = lat + random.nextGaussian() * 0.00003;
+            longitude[i] = lon + random.nextGaussian() * 0.00003;
+            accuracy[i] = (float) (5 + Math.abs(random.nextGaussian()) * 10);
+            speed[i] = (float) step;
+            bearing[i] = (float) ((Math.toDegrees(heading) % 360 + 360) % 360);
+
+            final Location location = new Location("benchmark");
+            location.setTime(1500000000000L + i * 1000L);
+            location.setLatitude(latitude[i]);
+            location.setLongitude(longitude[i]);
+            location.setAccuracy(accuracy[i]);
+            location.setSpeed(speed[i]);
+            location.setBearing(bearing[i]);
+            locations[i] = location;
+        }
+    }
+}
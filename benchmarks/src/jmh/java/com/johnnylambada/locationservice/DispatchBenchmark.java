@@ -0,0 +1,61 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one provider result to N observers on the worker thread, as done by
+ * LocationService.onNewLocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int observers;
+
+    @Param({"1", "10"})
+    public int batchSize;
+
+    private final BenchmarkTrack track = new BenchmarkTrack();
+    private LocationDispatcher dispatcher;
+    private List<Location> batch;
+    private long sink;
+
+    @Setup
+    public void setUp(){
+        dispatcher = new LocationDispatcher(new LocationMetrics());
+        for (int i = 0; i < observers; i++) {
+            dispatcher.addObserver(location -> sink += location.getTime(),
+                    LocationExecutors.worker(), LocationStream.RAW);
+        }
+        if (batchSize == 1) {
+            batch = Collections.singletonList(track.locations[0]);
+        } else {
+            batch = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(track.locations[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public long dispatch(){
+        dispatcher.dispatch(LocationStream.RAW, batch, System.nanoTime());
+        return sink;
+    }
+}
@@ -0,0 +1,79 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-fix processing stages: processor gates, Kalman smoothing, track simplification and
+ * adaptive sampling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+    private final BenchmarkTrack track = new BenchmarkTrack();
+    private final List<List<Location>> singletons = new ArrayList<>();
+    private LocationProcessorChain chain;
+    private KalmanSmoother smoother;
+    private TrackSimplifier simplifier;
+    private AdaptiveSampler sampler;
+    private int index;
+    private long timeMs;
+
+    @Setup
+    public void setUp(){
+        for (Location location : track.locations) {
+            singletons.add(Collections.singletonList(location));
+        }
+        chain = new LocationProcessorChain(Arrays.asList(
+                LocationProcessors.maxAccuracyM(20),
+                LocationProcessors.minTimeMs(500),
+                LocationProcessors.minDisplacementM(1)));
+        smoother = new KalmanSmoother(1.5);
+        simplifier = new TrackSimplifier(5, 64, 300000);
+        sampler = new AdaptiveSampler(new AdaptiveSamplingConfiguration.Builder().build(), MotionState.WALKING);
+        timeMs = 1500000000000L;
+    }
+
+    @Benchmark
+    public List<Location> processorChain(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        // Keep times increasing across wrap-arounds so the time gate behaves as in the field.
+        track.locations[i].setTime(timeMs += 1000);
+        return chain.filter(singletons.get(i));
+    }
+
+    @Benchmark
+    public double kalman(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        smoother.update(timeMs += 1000, track.latitude[i], track.longitude[i], track.accuracy[i]);
+        return smoother.getLatitude();
+    }
+
+    @Benchmark
+    public int simplify(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        return simplifier.add(timeMs += 1000, track.latitude[i], track.longitude[i]);
+    }
+
+    @Benchmark
+    public boolean adaptiveSampling(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        return sampler.update(timeMs += 1000, track.latitude[i], track.longitude[i],
+                track.accuracy[i], Float.NaN);
+    }
+}
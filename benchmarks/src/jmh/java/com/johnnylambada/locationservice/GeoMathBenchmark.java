@@ -0,0 +1,51 @@
+package com.johnnylambada.locationservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance between consecutive fixes by each method available to the per-fix path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeoMathBenchmark {
+
+    private final BenchmarkTrack track = new BenchmarkTrack();
+    private final double cosLat = Math.cos(Math.toRadians(track.latitude[0]));
+    private int index;
+
+    @Benchmark
+    public double haversine(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final int j = (i + 1) & BenchmarkTrack.MASK;
+        return GeoMath.haversine(track.latitude[i], track.longitude[i], track.latitude[j], track.longitude[j]);
+    }
+
+    @Benchmark
+    public double equirectangular(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final int j = (i + 1) & BenchmarkTrack.MASK;
+        return GeoMath.equirectangular(track.latitude[i], track.longitude[i], track.latitude[j], track.longitude[j]);
+    }
+
+    @Benchmark
+    public double equirectangularCachedCos(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final int j = (i + 1) & BenchmarkTrack.MASK;
+        return GeoMath.equirectangular(track.latitude[i], track.longitude[i], track.latitude[j], track.longitude[j], cosLat);
+    }
+
+    @Benchmark
+    public float locationDistanceTo(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final int j = (i + 1) & BenchmarkTrack.MASK;
+        return track.locations[i].distanceTo(track.locations[j]);
+    }
+}
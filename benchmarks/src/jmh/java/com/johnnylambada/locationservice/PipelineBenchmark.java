@@ -0,0 +1,104 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole per-fix pipeline of LocationService, driven by a {@link ReplayLocationSource} at
+ * max speed. Each invocation replays the benchmark track once; scores are per fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmark {
+
+    /**
+     * Just the processor chain and dispatch, or every optional stage.
+     */
+    @Param({"false", "true"})
+    public boolean allStages;
+
+    private final BenchmarkTrack track = new BenchmarkTrack();
+    private LocationServiceConfiguration configuration;
+    private LocationPipeline pipeline;
+    private long timeMs;
+    private long sink;
+
+    @Setup
+    public void setUp(){
+        final LocationServiceConfiguration.Builder builder = new LocationServiceConfiguration.Builder()
+                .appName("benchmark")
+                .packageName("benchmark")
+                .addProcessor(LocationProcessors.maxAccuracyM(20));
+        if (allStages) {
+            builder.adaptiveSampling(new AdaptiveSamplingConfiguration.Builder().build())
+                    .simplificationToleranceM(5)
+                    .smoothing(true)
+                    .tripSegmentation(true);
+        }
+        configuration = builder.build();
+        final LocationMetrics metrics = new LocationMetrics();
+        final LocationDispatcher dispatcher = new LocationDispatcher(metrics);
+        dispatcher.addObserver(location -> sink += location.getTime(),
+                LocationExecutors.worker(), LocationStream.RAW);
+        pipeline = new LocationPipeline(
+                configuration,
+                new LocationProcessorChain(configuration.getProcessors()),
+                dispatcher,
+                metrics,
+                new Odometer(),
+                new TripDispatcher(),
+                null,
+                new LocationPipeline.Host() {
+                    @Override
+                    public void onMotionStateChanged(MotionState state, LocationRequestSpec spec) {
+                    }
+
+                    @Override
+                    public void onLocationsAccepted(List<Location> locations) {
+                    }
+                });
+        timeMs = 1500000000000L;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkTrack.SIZE)
+    public long replay() throws InterruptedException {
+        final ReplayLocationSource source = new ReplayLocationSource(
+                new TrackReader() {
+                    private int index;
+
+                    @Override
+                    public Location read() {
+                        if (index == BenchmarkTrack.SIZE) {
+                            return null;
+                        }
+                        // Keep times increasing across invocations, as in the field.
+                        final Location location = track.locations[index++];
+                        location.setTime(timeMs += 1000);
+                        return location;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                },
+                ReplayLocationSource.MAX_SPEED,
+                Runnable::run);
+        source.requestLocationUpdates(pipeline.getRequestSpec(), 0, pipeline);
+        source.awaitFinished(Long.MAX_VALUE);
+        return sink + source.getReplayedCount();
+    }
+}
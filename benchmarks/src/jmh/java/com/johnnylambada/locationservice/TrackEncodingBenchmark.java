@@ -0,0 +1,89 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a fix: the track store's fixed-width record, the recent fix buffer's arrays, and a
+ * DataOutputStream as the conventional baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackEncodingBenchmark {
+
+    private final BenchmarkTrack track = new BenchmarkTrack();
+    private ByteBuffer records;
+    private RecentFixBuffer recentFixes;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+    private int index;
+
+    @Setup
+    public void setUp(){
+        records = ByteBuffer.allocateDirect(BenchmarkTrack.SIZE * TrackStore.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        recentFixes = new RecentFixBuffer(86400);
+        bytes = new ByteArrayOutputStream(BenchmarkTrack.SIZE * TrackStore.RECORD_SIZE);
+        out = new DataOutputStream(bytes);
+    }
+
+    @Benchmark
+    public ByteBuffer trackRecord(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final Location location = track.locations[i];
+        TrackStore.encode(records, i * TrackStore.RECORD_SIZE, location.getTime(),
+                location.getLatitude(), location.getLongitude(), Double.NaN,
+                location.getAccuracy(), location.getSpeed(), location.getBearing());
+        return records;
+    }
+
+    @Benchmark
+    public boolean trackRecordRoundTrip(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        final Location location = track.locations[i];
+        final int offset = i * TrackStore.RECORD_SIZE;
+        TrackStore.encode(records, offset, location.getTime(),
+                location.getLatitude(), location.getLongitude(), Double.NaN,
+                location.getAccuracy(), location.getSpeed(), location.getBearing());
+        return TrackStore.isValid(records, offset);
+    }
+
+    @Benchmark
+    public long recentFixBuffer(){
+        final int i = index++ & BenchmarkTrack.MASK;
+        recentFixes.add(track.locations[i]);
+        return recentFixes.getEndSequence();
+    }
+
+    @Benchmark
+    public int dataOutputStream() throws IOException {
+        final int i = index++ & BenchmarkTrack.MASK;
+        if (i == 0) {
+            bytes.reset();
+        }
+        final Location location = track.locations[i];
+        out.writeLong(location.getTime());
+        out.writeDouble(location.getLatitude());
+        out.writeDouble(location.getLongitude());
+        out.writeDouble(Double.NaN);
+        out.writeFloat(location.getAccuracy());
+        out.writeFloat(location.getSpeed());
+        out.writeFloat(location.getBearing());
+        return bytes.size();
+    }
+}
@@ -0,0 +1,113 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Infers a {@link MotionState} from the stream of fixes and reports when the location request
+ * should change. Works on primitives and keeps constant state, so it costs a few arithmetic
+ * operations per fix. Not thread safe; the service feeds it from its worker thread.
+ */
+class AdaptiveSampler {
+
+    /**
+     * Weight of the newest speed sample in the smoothed speed.
+     */
+    private static final double SPEED_SMOOTHING = 0.5;
+
+    private final AdaptiveSamplingConfiguration configuration;
+
+    private MotionState state;
+    private MotionState candidate;
+    private long candidateSinceMs;
+
+    private boolean hasPrevious;
+    private long previousTimeMs;
+    private double previousLat;
+    private double previousLon;
+
+    private double smoothedSpeedMps = Double.NaN;
+
+    AdaptiveSampler(AdaptiveSamplingConfiguration configuration, MotionState initialState){
+        this.configuration = configuration;
+        this.state = initialState;
+    }
+
+    MotionState getState(){
+        return state;
+    }
+
+    LocationRequestSpec getSpec(){
+        return configuration.getSpec(state);
+    }
+
+    double getSmoothedSpeedMps(){
+        return smoothedSpeedMps;
+    }
+
+    /**
+     * Feeds one fix.
+     *
+     * @param speedMps the speed reported by the provider, or NaN if it has none. Without it the
+     *                 speed is derived from the displacement since the previous fix, discounted
+     *                 by the fix's accuracy so jitter around a fixed spot reads as standing still.
+     * @return true if the state changed and the request returned by {@link #getSpec()} should be
+     *         applied.
+     */
+    boolean update(long timeMs, double lat, double lon, float accuracyM, float speedMps){
+        double sample = Double.NaN;
+        if (!Float.isNaN(speedMps)) {
+            sample = speedMps;
+        } else if (hasPrevious && timeMs > previousTimeMs) {
+            final double displacement = GeoMath.equirectangular(previousLat, previousLon, lat, lon)
+                    - accuracyM;
+            sample = Math.max(0, displacement) * 1000.0 / (timeMs - previousTimeMs);
+        }
+        hasPrevious = true;
+        previousTimeMs = timeMs;
+        previousLat = lat;
+        previousLon = lon;
+
+        if (Double.isNaN(sample)) {
+            return false;
+        }
+        smoothedSpeedMps = Double.isNaN(smoothedSpeedMps)
+                ? sample
+                : smoothedSpeedMps + SPEED_SMOOTHING * (sample - smoothedSpeedMps);
+
+        final MotionState target = classify(smoothedSpeedMps);
+        if (target == state) {
+            candidate = null;
+            return false;
+        }
+        if (target != candidate) {
+            candidate = target;
+            candidateSinceMs = timeMs;
+        }
+        final long delayMs = target.ordinal() > state.ordinal()
+                ? configuration.getUpgradeDelayMs()
+                : configuration.getDowngradeDelayMs();
+        if (timeMs - candidateSinceMs < delayMs) {
+            return false;
+        }
+        state = target;
+        candidate = null;
+        return true;
+    }
+
+    private MotionState classify(double speedMps){
+        double walking = configuration.getWalkingSpeedMps();
+        double driving = configuration.getDrivingSpeedMps();
+        // Staying in a state is easier than entering it.
+        if (state != MotionState.STATIONARY) {
+            walking -= configuration.getSpeedHysteresisMps();
+        }
+        if (state == MotionState.DRIVING) {
+            driving -= configuration.getSpeedHysteresisMps();
+        }
+        if (speedMps >= driving) {
+            return MotionState.DRIVING;
+        }
+        if (speedMps >= walking) {
+            return MotionState.WALKING;
+        }
+        return MotionState.STATIONARY;
+    }
+}
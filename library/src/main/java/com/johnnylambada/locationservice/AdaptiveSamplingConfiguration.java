@@ -0,0 +1,172 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Thresholds and per-state requests for adaptive sampling, see
+ * {@link LocationServiceConfiguration.Builder#adaptiveSampling(AdaptiveSamplingConfiguration)}.
+ *
+ * The sampler smooths the speed of recent fixes and classifies it as {@link MotionState}. A faster
+ * state is entered after {@link #getUpgradeDelayMs()}, a slower one only after
+ * {@link #getDowngradeDelayMs()}, and leaving a state requires the speed to fall
+ * {@link #getSpeedHysteresisMps()} below the threshold that entered it, so a device hovering
+ * around a threshold doesn't flap between requests.
+ */
+public class AdaptiveSamplingConfiguration {
+    private final float walkingSpeedMps;
+    private final float drivingSpeedMps;
+    private final float speedHysteresisMps;
+    private final long upgradeDelayMs;
+    private final long downgradeDelayMs;
+    private final LocationRequestSpec stationarySpec;
+    private final LocationRequestSpec walkingSpec;
+    private final LocationRequestSpec drivingSpec;
+
+    private AdaptiveSamplingConfiguration(
+            float walkingSpeedMps,
+            float drivingSpeedMps,
+            float speedHysteresisMps,
+            long upgradeDelayMs,
+            long downgradeDelayMs,
+            LocationRequestSpec stationarySpec,
+            LocationRequestSpec walkingSpec,
+            LocationRequestSpec drivingSpec
+    ){
+        this.walkingSpeedMps = walkingSpeedMps;
+        this.drivingSpeedMps = drivingSpeedMps;
+        this.speedHysteresisMps = speedHysteresisMps;
+        this.upgradeDelayMs = upgradeDelayMs;
+        this.downgradeDelayMs = downgradeDelayMs;
+        this.stationarySpec = stationarySpec;
+        this.walkingSpec = walkingSpec;
+        this.drivingSpec = drivingSpec;
+    }
+
+    /**
+     * The smoothed speed at or above which the device is considered to be walking.
+     */
+    public float getWalkingSpeedMps() {
+        return walkingSpeedMps;
+    }
+
+    /**
+     * The smoothed speed at or above which the device is considered to be driving.
+     */
+    public float getDrivingSpeedMps() {
+        return drivingSpeedMps;
+    }
+
+    public float getSpeedHysteresisMps() {
+        return speedHysteresisMps;
+    }
+
+    /**
+     * How long a faster state must be observed before the request is changed to it.
+     */
+    public long getUpgradeDelayMs() {
+        return upgradeDelayMs;
+    }
+
+    /**
+     * How long a slower state must be observed before the request is changed to it.
+     */
+    public long getDowngradeDelayMs() {
+        return downgradeDelayMs;
+    }
+
+    public LocationRequestSpec getSpec(MotionState state) {
+        switch (state) {
+            case STATIONARY: return stationarySpec;
+            case DRIVING: return drivingSpec;
+            default: return walkingSpec;
+        }
+    }
+
+    public static class Builder {
+        private float walkingSpeedMps = 0.6f;
+        private float drivingSpeedMps = 7f; // ~25 km/h
+        private float speedHysteresisMps = 0.3f;
+        private long upgradeDelayMs = 0;
+        private long downgradeDelayMs = 120000; // 2 minutes
+        private LocationRequestSpec stationarySpec = new LocationRequestSpec.Builder()
+                .intervalMs(120000)
+                .fastestIntervalMs(60000)
+                .priority(LocationRequestSpec.PRIORITY_BALANCED_POWER_ACCURACY)
+                .smallestDisplacementM(25)
+                .build();
+        private LocationRequestSpec walkingSpec = new LocationRequestSpec.Builder()
+                .intervalMs(10000)
+                .fastestIntervalMs(5000)
+                .priority(LocationRequestSpec.PRIORITY_HIGH_ACCURACY)
+                .smallestDisplacementM(5)
+                .build();
+        private LocationRequestSpec drivingSpec = new LocationRequestSpec.Builder()
+                .intervalMs(5000)
+                .fastestIntervalMs(2000)
+                .priority(LocationRequestSpec.PRIORITY_HIGH_ACCURACY)
+                .build();
+
+        public Builder walkingSpeedMps(float walkingSpeedMps){
+            this.walkingSpeedMps = walkingSpeedMps;
+            return this;
+        }
+
+        public Builder drivingSpeedMps(float drivingSpeedMps){
+            this.drivingSpeedMps = drivingSpeedMps;
+            return this;
+        }
+
+        public Builder speedHysteresisMps(float speedHysteresisMps){
+            this.speedHysteresisMps = speedHysteresisMps;
+            return this;
+        }
+
+        public Builder upgradeDelayMs(long upgradeDelayMs){
+            this.upgradeDelayMs = upgradeDelayMs;
+            return this;
+        }
+
+        public Builder downgradeDelayMs(long downgradeDelayMs){
+            this.downgradeDelayMs = downgradeDelayMs;
+            return this;
+        }
+
+        public Builder stationarySpec(LocationRequestSpec stationarySpec){
+            this.stationarySpec = stationarySpec;
+            return this;
+        }
+
+        public Builder walkingSpec(LocationRequestSpec walkingSpec){
+            this.walkingSpec = walkingSpec;
+            return this;
+        }
+
+        public Builder drivingSpec(LocationRequestSpec drivingSpec){
+            this.drivingSpec = drivingSpec;
+            return this;
+        }
+
+        public AdaptiveSamplingConfiguration build(){
+            if (stationarySpec==null || walkingSpec==null || drivingSpec==null){
+                throw new IllegalArgumentException("specs can't be null");
+            }
+            if (walkingSpeedMps<=0 || drivingSpeedMps<=walkingSpeedMps){
+                throw new IllegalArgumentException("speeds must satisfy 0 < walking < driving");
+            }
+            if (speedHysteresisMps<0 || speedHysteresisMps>=walkingSpeedMps){
+                throw new IllegalArgumentException("speedHysteresisMps must be in [0, walkingSpeedMps)");
+            }
+            if (upgradeDelayMs<0 || downgradeDelayMs<0){
+                throw new IllegalArgumentException("delays can't be negative");
+            }
+            return new AdaptiveSamplingConfiguration(
+                    walkingSpeedMps,
+                    drivingSpeedMps,
+                    speedHysteresisMps,
+                    upgradeDelayMs,
+                    downgradeDelayMs,
+                    stationarySpec,
+                    walkingSpec,
+                    drivingSpec
+            );
+        }
+    }
+}
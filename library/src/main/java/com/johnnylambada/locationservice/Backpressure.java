@@ -0,0 +1,93 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * How a {@link LocationSubscription} copes with a subscriber that is slower than the provider.
+ * Fixes are queued per subscription, so a slow subscriber only ever delays itself; the strategy
+ * decides what its queue keeps.
+ */
+public final class Backpressure {
+
+    enum Strategy {
+        LATEST,
+        DROP_OLDEST,
+        SAMPLE,
+        BATCH
+    }
+
+    private final Strategy strategy;
+    private final int capacity;
+    private final long periodMs;
+
+    private Backpressure(Strategy strategy, int capacity, long periodMs){
+        this.strategy = strategy;
+        this.capacity = capacity;
+        this.periodMs = periodMs;
+    }
+
+    /**
+     * Keeps only the newest fix. A subscriber that falls behind skips straight to the latest.
+     */
+    public static Backpressure latest(){
+        return new Backpressure(Strategy.LATEST, 1, 0);
+    }
+
+    /**
+     * Keeps up to {@code capacity} fixes and drops the oldest when more arrive. Everything queued
+     * is delivered in one call.
+     */
+    public static Backpressure dropOldest(int capacity){
+        if (capacity<=0){
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return new Backpressure(Strategy.DROP_OLDEST, capacity, 0);
+    }
+
+    /**
+     * Delivers at most one fix per {@code periodMs} of fix time: the first fix of each period,
+     * dropping the rest. Queues like {@link #latest()}.
+     */
+    public static Backpressure sample(long periodMs){
+        if (periodMs<=0){
+            throw new IllegalArgumentException("periodMs must be positive");
+        }
+        return new Backpressure(Strategy.SAMPLE, 1, periodMs);
+    }
+
+    /**
+     * Collects fixes and delivers them once {@code maxCount} are collected or they span
+     * {@code maxDelayMs} of fix time, whichever comes first. A batch that is still partial
+     * {@code maxDelayMs} after its first fix arrived is delivered as it is, so fixes don't wait
+     * for the next one when they stop. Nothing is dropped, so the queue is unbounded if the
+     * subscriber can't keep up.
+     */
+    public static Backpressure batch(int maxCount, long maxDelayMs){
+        if (maxCount<=0){
+            throw new IllegalArgumentException("maxCount must be positive");
+        }
+        if (maxDelayMs<=0){
+            throw new IllegalArgumentException("maxDelayMs must be positive");
+        }
+        return new Backpressure(Strategy.BATCH, maxCount, maxDelayMs);
+    }
+
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getPeriodMs() {
+        return periodMs;
+    }
+
+    @Override public String toString() {
+        switch (strategy) {
+            case DROP_OLDEST: return "dropOldest(" + capacity + ")";
+            case SAMPLE: return "sample(" + periodMs + ")";
+            case BATCH: return "batch(" + capacity + ", " + periodMs + ")";
+            default: return "latest()";
+        }
+    }
+}
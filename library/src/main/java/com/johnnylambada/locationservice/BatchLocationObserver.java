@@ -0,0 +1,13 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.List;
+
+/**
+ * Receives every fix of a provider batch in a single call. The list is ordered oldest first and
+ * must not be modified or retained past the call.
+ */
+public interface BatchLocationObserver {
+    void onLocations(List<Location> locations);
+}
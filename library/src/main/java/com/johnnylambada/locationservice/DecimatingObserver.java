@@ -0,0 +1,103 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Thins the merged stream back down to what one client asked for, the way the Fused Location
+ * Provider treats an app whose request is slower than another's: fixes come no more often than
+ * the client's interval and no closer together than its smallest displacement. Its fastest
+ * interval only bounds the merged provider request; fixes are never dropped for it.
+ *
+ * It is registered on the worker thread, so the fixes a client skips never cost a hop to its
+ * executor.
+ */
+final class DecimatingObserver implements BatchLocationObserver {
+
+    private final LocationRequestSpec spec;
+    private final LocationObserver locationObserver;
+    private final BatchLocationObserver batchLocationObserver;
+    private final Executor executor;
+
+    // The last fix passed on, and when the next one is due. Worker thread only.
+    private Location last;
+    private long dueMs;
+
+    /**
+     * Either observer may be null, but not both.
+     */
+    DecimatingObserver(LocationRequestSpec spec, LocationObserver locationObserver,
+                       BatchLocationObserver batchLocationObserver, Executor executor){
+        this.spec = spec;
+        this.locationObserver = locationObserver;
+        this.batchLocationObserver = batchLocationObserver;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onLocations(List<Location> locations){
+        List<Location> kept = Collections.emptyList();
+        for (int i = 0, n = locations.size(); i < n; i++) {
+            final Location location = locations.get(i);
+            if (!isDue(location)) {
+                continue;
+            }
+            last = location;
+            if (kept.isEmpty()) {
+                kept = Collections.singletonList(location);
+            } else {
+                if (kept.size() == 1) {
+                    kept = new ArrayList<>(kept);
+                }
+                kept.add(location);
+            }
+        }
+        if (kept.isEmpty()) {
+            return;
+        }
+        final List<Location> delivered = kept;
+        executor.execute(() -> {
+            if (batchLocationObserver != null) {
+                batchLocationObserver.onLocations(delivered);
+            }
+            if (locationObserver != null) {
+                for (int i = 0, n = delivered.size(); i < n; i++) {
+                    locationObserver.onLocation(delivered.get(i));
+                }
+            }
+        });
+    }
+
+    private boolean isDue(Location location){
+        final long timeMs = location.getTime();
+        final long intervalMs = spec.getIntervalMs();
+        // A fix a little early still counts, or provider jitter on a request at this same
+        // interval would skip every other fix.
+        final long slackMs = intervalMs / 10;
+        if (last != null) {
+            if (timeMs < dueMs - slackMs) {
+                return false;
+            }
+            if (spec.getSmallestDisplacementM() > 0
+                    && GeoMath.equirectangular(last.getLatitude(), last.getLongitude(),
+                            location.getLatitude(), location.getLongitude())
+                            < spec.getSmallestDisplacementM()) {
+                return false;
+            }
+        }
+        // Step from the due time rather than the fix so early fixes don't speed up the rate,
+        // but not into the past after a gap, which would deliver a burst.
+        dueMs = last != null
+                ? Math.max(dueMs + intervalMs, timeMs + intervalMs - slackMs)
+                : timeMs + intervalMs;
+        return true;
+    }
+
+    @Override public String toString(){
+        return String.valueOf(locationObserver != null ? locationObserver : batchLocationObserver);
+    }
+}
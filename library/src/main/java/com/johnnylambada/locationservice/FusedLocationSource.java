@@ -0,0 +1,87 @@
+package com.johnnylambada.locationservice;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.Collections;
+
+/**
+ * The default {@link LocationSource}, backed by the Fused Location Provider API.
+ */
+final class FusedLocationSource implements LocationSource {
+
+    private static final String TAG = "FusedLocationSource";
+
+    static final Factory FACTORY = FusedLocationSource::new;
+
+    private final FusedLocationProviderClient client;
+    private final Looper looper;
+    private final Handler handler;
+
+    /**
+     * The observer registered with the provider. The callback is kept so that re-requesting
+     * replaces its request instead of adding a second one.
+     */
+    private volatile BatchLocationObserver observer;
+
+    private final LocationCallback callback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult locationResult) {
+            super.onLocationResult(locationResult);
+            if (observer != null) {
+                observer.onLocations(locationResult.getLocations());
+            }
+        }
+    };
+
+    private FusedLocationSource(Context context, Looper looper){
+        this.client = LocationServices.getFusedLocationProviderClient(context);
+        this.looper = looper;
+        this.handler = new Handler(looper);
+    }
+
+    @Override
+    public void requestLocationUpdates(LocationRequestSpec spec, long maxWaitTimeMs,
+                                       BatchLocationObserver observer){
+        final LocationRequest request = new LocationRequest();
+        request.setInterval(spec.getIntervalMs());
+        request.setFastestInterval(spec.getFastestIntervalMs());
+        request.setPriority(spec.getPriority());
+        request.setSmallestDisplacement(spec.getSmallestDisplacementM());
+        if (maxWaitTimeMs > 0) {
+            request.setMaxWaitTime(maxWaitTimeMs);
+        }
+        this.observer = observer;
+        client.requestLocationUpdates(request, callback, looper);
+    }
+
+    @Override
+    public void removeLocationUpdates(BatchLocationObserver observer){
+        if (this.observer != observer) {
+            return;
+        }
+        client.removeLocationUpdates(callback);
+        this.observer = null;
+    }
+
+    @Override
+    public void requestLastLocation(BatchLocationObserver observer){
+        client.getLastLocation().addOnCompleteListener(handler::post, task -> {
+            final Location location = task.isSuccessful() ? task.getResult() : null;
+            if (location != null) {
+                observer.onLocations(Collections.singletonList(location));
+            } else {
+                Log.w(TAG, "Failed to get location.");
+            }
+        });
+    }
+}
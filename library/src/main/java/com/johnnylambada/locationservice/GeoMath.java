@@ -0,0 +1,60 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Distance helpers that work on raw coordinates so hot paths don't need to allocate
+ * {@link android.location.Location}s or call {@link android.location.Location#distanceTo}.
+ */
+public final class GeoMath {
+
+    /**
+     * Mean earth radius in meters.
+     */
+    public static final double EARTH_RADIUS_M = 6371008.8;
+
+    private GeoMath(){
+    }
+
+    /**
+     * Great circle distance in meters between two points given in degrees.
+     */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2){
+        final double dLat = Math.toRadians(lat2 - lat1);
+        final double dLon = Math.toRadians(wrapLongitudeDelta(lon2 - lon1));
+        final double sinLat = Math.sin(dLat / 2);
+        final double sinLon = Math.sin(dLon / 2);
+        final double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Equirectangular approximation of the distance in meters between two points given in
+     * degrees. Within a fraction of a percent of {@link #haversine} for points a few kilometers
+     * apart, at a fraction of the cost.
+     */
+    public static double equirectangular(double lat1, double lon1, double lat2, double lon2){
+        return equirectangular(lat1, lon1, lat2, lon2, Math.cos(Math.toRadians((lat1 + lat2) / 2)));
+    }
+
+    /**
+     * {@link #equirectangular(double, double, double, double)} with the cosine of the latitude
+     * supplied by the caller, who can cache it while moving within a small area.
+     */
+    public static double equirectangular(double lat1, double lon1, double lat2, double lon2, double cosLat){
+        final double x = Math.toRadians(wrapLongitudeDelta(lon2 - lon1)) * cosLat;
+        final double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS_M * Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Wraps a difference of longitudes in degrees into [-180, 180), so the short way round
+     * is taken across the antimeridian. Also normalizes a longitude that ran past it.
+     */
+    public static double wrapLongitudeDelta(double deltaDeg){
+        if (deltaDeg >= -180 && deltaDeg < 180) {
+            return deltaDeg;
+        }
+        final double wrapped = (deltaDeg + 180) % 360;
+        return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+    }
+}
@@ -0,0 +1,230 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads the track and route points of a GPX file. Points without a time are skipped, since the
+ * replay is paced by time. Elevation, speed (GPX 1.0 or a Garmin track point extension) and
+ * hdop are used when present; hdop is turned into an accuracy by assuming a 5 m range error.
+ *
+ * The file is parsed with SAX when the reader is created and its points kept in primitive
+ * columns, so even long tracks cost a few dozen bytes per point until they are read.
+ */
+public final class GpxTrackReader implements TrackReader {
+
+    private static final String PROVIDER = "gpx";
+
+    static final float RANGE_ERROR_M = 5;
+
+    private int size;
+    private long[] time = new long[256];
+    private double[] latitude = new double[256];
+    private double[] longitude = new double[256];
+    private double[] elevation = new double[256];
+    private float[] speed = new float[256];
+    private float[] hdop = new float[256];
+
+    private int position;
+
+    /**
+     * Parses the whole stream, which is left open.
+     */
+    public GpxTrackReader(InputStream in) throws IOException {
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, new Handler());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse GPX", e);
+        }
+    }
+
+    /**
+     * The number of points with a time.
+     */
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public Location read(){
+        if (position == size) {
+            return null;
+        }
+        final int i = position++;
+        final Location location = new Location(PROVIDER);
+        location.setTime(time[i]);
+        location.setLatitude(latitude[i]);
+        location.setLongitude(longitude[i]);
+        if (!Double.isNaN(elevation[i])) {
+            location.setAltitude(elevation[i]);
+        }
+        if (!Float.isNaN(speed[i])) {
+            location.setSpeed(speed[i]);
+        }
+        if (!Float.isNaN(hdop[i])) {
+            location.setAccuracy(hdop[i] * RANGE_ERROR_M);
+        }
+        return location;
+    }
+
+    @Override
+    public void close(){
+        position = size;
+    }
+
+    private void add(long timeMs, double lat, double lon, double ele, float mps, float dop){
+        if (size == time.length) {
+            final int capacity = size * 2;
+            time = Arrays.copyOf(time, capacity);
+            latitude = Arrays.copyOf(latitude, capacity);
+            longitude = Arrays.copyOf(longitude, capacity);
+            elevation = Arrays.copyOf(elevation, capacity);
+            speed = Arrays.copyOf(speed, capacity);
+            hdop = Arrays.copyOf(hdop, capacity);
+        }
+        time[size] = timeMs;
+        latitude[size] = lat;
+        longitude[size] = lon;
+        elevation[size] = ele;
+        speed[size] = mps;
+        hdop[size] = dop;
+        size++;
+    }
+
+    /**
+     * Parses an ISO 8601 date and time as used by GPX, such as {@code 2018-06-01T12:34:56Z},
+     * {@code 2018-06-01T12:34:56.789Z} or {@code 2018-06-01T14:34:56+02:00}. A time without a
+     * zone is taken as UTC. Returns {@link Long#MIN_VALUE} if it can't be parsed.
+     */
+    static long parseTime(String s){
+        try {
+            final int year = Integer.parseInt(s.substring(0, 4));
+            final int month = Integer.parseInt(s.substring(5, 7));
+            final int day = Integer.parseInt(s.substring(8, 10));
+            final int hour = Integer.parseInt(s.substring(11, 13));
+            final int minute = Integer.parseInt(s.substring(14, 16));
+            final int second = Integer.parseInt(s.substring(17, 19));
+            if (s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                    || s.charAt(13) != ':' || s.charAt(16) != ':') {
+                return Long.MIN_VALUE;
+            }
+            int i = 19;
+            long millis = 0;
+            if (i < s.length() && s.charAt(i) == '.') {
+                long scale = 100;
+                while (++i < s.length() && Character.isDigit(s.charAt(i))) {
+                    millis += (s.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            int offsetMinutes = 0;
+            if (i < s.length() && s.charAt(i) != 'Z') {
+                final int sign = s.charAt(i) == '-' ? -1 : 1;
+                offsetMinutes = sign * (Integer.parseInt(s.substring(i + 1, i + 3)) * 60
+                        + Integer.parseInt(s.substring(i + 4, i + 6)));
+            }
+            final long seconds = daysFromCivil(year, month, day) * 86400L
+                    + hour * 3600 + minute * 60 + second - offsetMinutes * 60;
+            return seconds * 1000 + millis;
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long daysFromCivil(int year, int month, int day){
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private final class Handler extends DefaultHandler {
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint;
+        private double lat;
+        private double lon;
+        private long timeMs;
+        private double ele;
+        private float mps;
+        private float dop;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes){
+            final String name = name(localName, qName);
+            if (name.equals("trkpt") || name.equals("rtept")) {
+                inPoint = true;
+                lat = parseDouble(attributes.getValue("lat"));
+                lon = parseDouble(attributes.getValue("lon"));
+                timeMs = Long.MIN_VALUE;
+                ele = Double.NaN;
+                mps = Float.NaN;
+                dop = Float.NaN;
+            }
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length){
+            if (inPoint) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName){
+            if (!inPoint) {
+                return;
+            }
+            final String name = name(localName, qName);
+            switch (name) {
+                case "time": timeMs = parseTime(text.toString().trim()); break;
+                case "ele": ele = parseDouble(text.toString()); break;
+                case "speed": mps = (float) parseDouble(text.toString()); break;
+                case "hdop": dop = (float) parseDouble(text.toString()); break;
+                case "trkpt":
+                case "rtept":
+                    inPoint = false;
+                    if (timeMs != Long.MIN_VALUE && !Double.isNaN(lat) && !Double.isNaN(lon)) {
+                        add(timeMs, lat, lon, ele, mps, dop);
+                    }
+                    break;
+                default: break;
+            }
+        }
+
+        /**
+         * The element's name without a namespace prefix, whether or not the parser is
+         * namespace aware.
+         */
+        private String name(String localName, String qName){
+            final String name = localName != null && !localName.isEmpty() ? localName : qName;
+            return name.substring(name.indexOf(':') + 1);
+        }
+
+        private double parseDouble(String s){
+            if (s == null) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(s.trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.johnnylambada.locationservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-bucket histogram that can be recorded into from any thread without locking or
+ * allocating. Buckets follow a 1-2-5 series, which bounds the error of any percentile to the
+ * width of one bucket.
+ */
+class Histogram {
+
+    /**
+     * Inclusive upper bounds of every bucket but the last, which takes everything larger.
+     */
+    static final long[] BOUNDS = {
+            1, 2, 5,
+            10, 20, 50,
+            100, 200, 500,
+            1000, 2000, 5000,
+            10000, 20000, 50000,
+            100000, 200000, 500000,
+            1000000, 2000000, 5000000,
+            10000000, 20000000, 50000000
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong sum = new AtomicLong();
+
+    void record(long value){
+        int low = 0;
+        int high = BOUNDS.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        counts.incrementAndGet(low);
+        sum.addAndGet(value);
+    }
+
+    HistogramSnapshot snapshot(){
+        final long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(BOUNDS, copy, sum.get());
+    }
+}
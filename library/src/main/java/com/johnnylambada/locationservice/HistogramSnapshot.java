@@ -0,0 +1,70 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * A point-in-time copy of a histogram in {@link MetricsSnapshot}. Bucket {@code i} counts values
+ * up to {@code getBucketBounds()[i]}; the extra last bucket counts everything larger.
+ */
+public class HistogramSnapshot {
+    private final long[] bounds;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    HistogramSnapshot(long[] bounds, long[] counts, long sum){
+        this.bounds = bounds;
+        this.counts = counts;
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        this.count = count;
+        this.sum = sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long[] getBucketBounds() {
+        return bounds.clone();
+    }
+
+    public long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, in [0, 100], or
+     * Long.MAX_VALUE if it falls in the last, open bucket.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i < bounds.length ? bounds[i] : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override public String toString() {
+        return "{count=" + count
+                + ", mean=" + getMean()
+                + ", p50<=" + getPercentile(50)
+                + ", p90<=" + getPercentile(90)
+                + ", p99<=" + getPercentile(99) + "}";
+    }
+}
@@ -0,0 +1,174 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Constant-velocity Kalman filter over fixes, run independently on the east and north axes of a
+ * local plane around the first fix. Each axis has a position/velocity state and a 2x2 covariance
+ * held in primitive fields, so an update is a few dozen floating point operations and allocates
+ * nothing. Each fix's accuracy is its measurement noise, so a sloppy fix moves the estimate less
+ * than a precise one. Not thread safe; the service feeds it from its worker thread.
+ */
+class KalmanSmoother {
+
+    /**
+     * Used as the measurement noise of fixes without an accuracy.
+     */
+    private static final double DEFAULT_ACCURACY_M = 30;
+
+    /**
+     * After a gap this long the old estimate says nothing useful and the filter restarts.
+     */
+    private static final long RESET_GAP_MS = 300000; // 5 minutes
+
+    /**
+     * Past this distance from the origin the local plane is re-centered to keep it accurate.
+     */
+    private static final double RECENTER_DISTANCE_M = 20000;
+
+    private final double accelerationVariance;
+
+    private boolean initialized;
+    private long lastTimeMs;
+
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLat;
+    private double metersPerDegreeLon;
+
+    // East axis state and covariance.
+    private double x;
+    private double vx;
+    private double px00;
+    private double px01;
+    private double px11;
+
+    // North axis state and covariance.
+    private double y;
+    private double vy;
+    private double py00;
+    private double py01;
+    private double py11;
+
+    /**
+     * @param accelerationMps2 the standard deviation of the acceleration the filter allows for.
+     *                         Higher values follow turns faster but smooth less.
+     */
+    KalmanSmoother(double accelerationMps2){
+        if (accelerationMps2<=0){
+            throw new IllegalArgumentException("accelerationMps2 must be positive");
+        }
+        this.accelerationVariance = accelerationMps2 * accelerationMps2;
+    }
+
+    void update(long timeMs, double lat, double lon, float accuracyM){
+        final double accuracy = Float.isNaN(accuracyM) || accuracyM <= 0 ? DEFAULT_ACCURACY_M : accuracyM;
+        final double r = accuracy * accuracy;
+        if (!initialized || timeMs - lastTimeMs > RESET_GAP_MS) {
+            reset(timeMs, lat, lon, r);
+            return;
+        }
+        final double zx = GeoMath.wrapLongitudeDelta(lon - originLon) * metersPerDegreeLon;
+        final double zy = (lat - originLat) * metersPerDegreeLat;
+        final double dt = (timeMs - lastTimeMs) / 1000.0;
+        lastTimeMs = Math.max(lastTimeMs, timeMs);
+
+        if (dt > 0) {
+            final double dt2 = dt * dt;
+            final double q00 = accelerationVariance * dt2 * dt2 / 4;
+            final double q01 = accelerationVariance * dt2 * dt / 2;
+            final double q11 = accelerationVariance * dt2;
+
+            x += vx * dt;
+            px00 += dt * 2 * px01 + dt2 * px11 + q00;
+            px01 += dt * px11 + q01;
+            px11 += q11;
+
+            y += vy * dt;
+            py00 += dt * 2 * py01 + dt2 * py11 + q00;
+            py01 += dt * py11 + q01;
+            py11 += q11;
+        }
+
+        // East axis correction.
+        double s = px00 + r;
+        double k0 = px00 / s;
+        double k1 = px01 / s;
+        double innovation = zx - x;
+        x += k0 * innovation;
+        vx += k1 * innovation;
+        px11 -= k1 * px01;
+        px01 -= k0 * px01;
+        px00 -= k0 * px00;
+
+        // North axis correction.
+        s = py00 + r;
+        k0 = py00 / s;
+        k1 = py01 / s;
+        innovation = zy - y;
+        y += k0 * innovation;
+        vy += k1 * innovation;
+        py11 -= k1 * py01;
+        py01 -= k0 * py01;
+        py00 -= k0 * py00;
+
+        if (Math.abs(x) > RECENTER_DISTANCE_M || Math.abs(y) > RECENTER_DISTANCE_M) {
+            recenter();
+        }
+    }
+
+    private void reset(long timeMs, double lat, double lon, double r){
+        initialized = true;
+        lastTimeMs = timeMs;
+        originLat = lat;
+        originLon = lon;
+        metersPerDegreeLat = Math.toRadians(1) * GeoMath.EARTH_RADIUS_M;
+        metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(lat));
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        px00 = r;
+        py00 = r;
+        px01 = 0;
+        py01 = 0;
+        // Nothing is known about the velocity yet.
+        px11 = 100;
+        py11 = 100;
+    }
+
+    private void recenter(){
+        final double lat = getLatitude();
+        final double lon = getLongitude();
+        originLat = lat;
+        originLon = lon;
+        metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(lat));
+        x = 0;
+        y = 0;
+    }
+
+    double getLatitude(){
+        return originLat + y / metersPerDegreeLat;
+    }
+
+    double getLongitude(){
+        return GeoMath.wrapLongitudeDelta(originLon + x / metersPerDegreeLon);
+    }
+
+    float getSpeedMps(){
+        return (float) Math.sqrt(vx * vx + vy * vy);
+    }
+
+    /**
+     * The direction of travel in degrees east of true north, in [0, 360).
+     */
+    float getBearingDeg(){
+        final double bearing = Math.toDegrees(Math.atan2(vx, vy));
+        return (float) (bearing < 0 ? bearing + 360 : bearing);
+    }
+
+    /**
+     * The radius in meters of one standard deviation of the position estimate.
+     */
+    float getAccuracyM(){
+        return (float) Math.sqrt(px00 + py00);
+    }
+}
@@ -0,0 +1,163 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the most recent accepted fix in a one-record file, so a newly created service has a
+ * location to show before the provider delivers its first fix.
+ *
+ * The record uses the {@link TrackStore} record format, checksum included. It is written to a
+ * temporary file that is synced and then renamed over the cache, so a process killed mid-write
+ * leaves the previous fix in place. Writes happen on a background thread, at most once per
+ * {@link #MIN_WRITE_INTERVAL_MS}; a fix offered sooner is written when the interval is up,
+ * along with whatever newer fix arrived meanwhile.
+ */
+class LastFixCache implements Closeable {
+
+    private static final String TAG = "LastFixCache";
+
+    static final String FILE_NAME = "locationservice/lastfix.bin";
+
+    static final String PROVIDER = "cache";
+
+    static final long MIN_WRITE_INTERVAL_MS = 30000;
+
+    private final File file;
+    private final AtomicReference<Location> pending = new AtomicReference<>();
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    private volatile long lastWriteUptimeMs = Long.MIN_VALUE / 2;
+    private ScheduledThreadPoolExecutor writer;
+
+    LastFixCache(File file){
+        this.file = file;
+    }
+
+    /**
+     * Reads the cached fix, flagged with {@link LocationService#EXTRA_CACHED}, or returns null if
+     * there is none. Reads a few dozen bytes on the calling thread.
+     */
+    Location load(){
+        final ByteBuffer buffer = ByteBuffer.allocate(TrackStore.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() != TrackStore.RECORD_SIZE) {
+                return null;
+            }
+            raf.readFully(buffer.array());
+        } catch (IOException e) {
+            // Nothing cached yet.
+            return null;
+        }
+        if (!TrackStore.isValid(buffer, 0)) {
+            return null;
+        }
+        final Location location = new Location(PROVIDER);
+        location.setTime(buffer.getLong(TrackStore.OFFSET_TIME));
+        location.setLatitude(buffer.getDouble(TrackStore.OFFSET_LATITUDE));
+        location.setLongitude(buffer.getDouble(TrackStore.OFFSET_LONGITUDE));
+        final double altitude = buffer.getDouble(TrackStore.OFFSET_ALTITUDE);
+        if (!Double.isNaN(altitude)) {
+            location.setAltitude(altitude);
+        }
+        final float accuracy = buffer.getFloat(TrackStore.OFFSET_ACCURACY);
+        if (!Float.isNaN(accuracy)) {
+            location.setAccuracy(accuracy);
+        }
+        final float speed = buffer.getFloat(TrackStore.OFFSET_SPEED);
+        if (!Float.isNaN(speed)) {
+            location.setSpeed(speed);
+        }
+        final float bearing = buffer.getFloat(TrackStore.OFFSET_BEARING);
+        if (!Float.isNaN(bearing)) {
+            location.setBearing(bearing);
+        }
+        final Bundle extras = new Bundle();
+        extras.putBoolean(LocationService.EXTRA_CACHED, true);
+        location.setExtras(extras);
+        return location;
+    }
+
+    /**
+     * Makes the fix the one to cache. Cheap enough for every fix.
+     */
+    void offer(Location location){
+        pending.set(location);
+        if (writePending.compareAndSet(false, true)) {
+            final long delayMs = lastWriteUptimeMs + MIN_WRITE_INTERVAL_MS - SystemClock.uptimeMillis();
+            writer().schedule(this::persist, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the newest offered fix and lets the background thread exit once it is written.
+     * The cache must not be used afterwards.
+     */
+    @Override public synchronized void close(){
+        if (writer == null) {
+            return;
+        }
+        if (pending.get() != null) {
+            writer.execute(this::persist);
+        }
+        // Already written above; a delayed write would only keep the thread alive.
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        writer.shutdown();
+    }
+
+    private void persist(){
+        writePending.set(false);
+        final Location location = pending.getAndSet(null);
+        if (location == null) {
+            return;
+        }
+        lastWriteUptimeMs = SystemClock.uptimeMillis();
+        final ByteBuffer buffer = ByteBuffer.allocate(TrackStore.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        TrackStore.encode(buffer, 0,
+                location.getTime(),
+                location.getLatitude(),
+                location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN);
+        file.getParentFile().mkdirs();
+        final File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache last fix in " + temp, e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not rename " + temp + " to " + file);
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor writer(){
+        if (writer==null) {
+            writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "LocationLastFixCache");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+}
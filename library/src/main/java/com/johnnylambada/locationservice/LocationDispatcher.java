@@ -0,0 +1,189 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process fan-out of location fixes from the {@link LocationService} to its observers.
+ *
+ * The service and its clients always share a process (see {@link LocationService.LocalBinder}),
+ * so fixes are handed to observers directly instead of being parceled into an Intent and sent
+ * through a LocalBroadcastManager. Registration is rare and dispatch is frequent, so observers
+ * are kept in a copy-on-write list: dispatch iterates a stable snapshot without locking.
+ *
+ * Dispatch runs on the service's worker thread. Each observer is delivered on the
+ * {@link Executor} it registered with; observers on {@link LocationExecutors#worker()} are called
+ * inline. Every delivery is timed into the {@link LocationMetrics} given at construction.
+ */
+class LocationDispatcher {
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final LocationMetrics metrics;
+    private volatile Runnable registrationListener;
+
+    LocationDispatcher(LocationMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    void addObserver(LocationObserver observer, Executor executor, LocationStream stream){
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        add(new Registration(observer, null, executor, stream, metrics));
+    }
+
+    void removeObserver(LocationObserver observer){
+        remove(observer);
+    }
+
+    void addBatchObserver(BatchLocationObserver observer, Executor executor, LocationStream stream){
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        add(new Registration(null, observer, executor, stream, metrics));
+    }
+
+    void removeBatchObserver(BatchLocationObserver observer){
+        remove(observer);
+    }
+
+    boolean hasObservers(){
+        return !registrations.isEmpty();
+    }
+
+    /**
+     * Returns true if an observer that takes every fix is registered, that is one not thinned to
+     * a client's own request by a {@link DecimatingObserver}.
+     */
+    boolean hasUndecimatedObservers(){
+        for (Registration registration : registrations) {
+            if (!(registration.observer() instanceof DecimatingObserver)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets what to run, on the registering thread, after an observer is added or removed.
+     */
+    void setRegistrationListener(Runnable registrationListener){
+        this.registrationListener = registrationListener;
+    }
+
+    /**
+     * Delivers a batch of locations from the given stream, oldest first. Batch observers get the
+     * whole list in one call; plain observers get each location in order.
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the provider callback arrived, for the
+     *                      observer latency histogram
+     */
+    void dispatch(LocationStream stream, List<Location> locations, long receivedNanos){
+        for (Registration registration : registrations) {
+            if (registration.stream!=stream) {
+                continue;
+            }
+            if (registration.executor==LocationExecutors.worker()) {
+                registration.deliver(locations, receivedNanos);
+            } else {
+                registration.executor.execute(() -> registration.deliver(locations, receivedNanos));
+            }
+        }
+    }
+
+    /**
+     * Snapshots the time each registered observer spends per delivery, keyed by the observer's
+     * {@code toString()}.
+     */
+    Map<String, HistogramSnapshot> snapshotDispatchTimes(){
+        final Map<String, HistogramSnapshot> times = new LinkedHashMap<>();
+        for (Registration registration : registrations) {
+            times.put(String.valueOf(registration.observer()), registration.dispatchUs.snapshot());
+        }
+        return times;
+    }
+
+    private void add(Registration registration){
+        if (registration.executor==null){
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        if (registration.stream==null){
+            throw new IllegalArgumentException("stream can't be null");
+        }
+        synchronized (registrations) {
+            for (Registration existing : registrations) {
+                if (existing.observes(registration.observer())) {
+                    return;
+                }
+            }
+            registrations.add(registration);
+        }
+        notifyRegistrationListener();
+    }
+
+    private void remove(Object observer){
+        synchronized (registrations) {
+            for (Registration registration : registrations) {
+                if (registration.observes(observer)) {
+                    registrations.remove(registration);
+                    break;
+                }
+            }
+        }
+        notifyRegistrationListener();
+    }
+
+    private void notifyRegistrationListener(){
+        final Runnable listener = registrationListener;
+        if (listener!=null) {
+            listener.run();
+        }
+    }
+
+    private static final class Registration {
+        private final LocationObserver locationObserver;
+        private final BatchLocationObserver batchLocationObserver;
+        private final Executor executor;
+        private final LocationStream stream;
+        private final LocationMetrics metrics;
+        private final Histogram dispatchUs = new Histogram();
+
+        Registration(LocationObserver locationObserver,
+                     BatchLocationObserver batchLocationObserver,
+                     Executor executor,
+                     LocationStream stream,
+                     LocationMetrics metrics){
+            this.locationObserver = locationObserver;
+            this.batchLocationObserver = batchLocationObserver;
+            this.executor = executor;
+            this.stream = stream;
+            this.metrics = metrics;
+        }
+
+        Object observer(){
+            return locationObserver!=null ? locationObserver : batchLocationObserver;
+        }
+
+        boolean observes(Object observer){
+            return observer()==observer;
+        }
+
+        void deliver(List<Location> locations, long receivedNanos){
+            final long startNanos = System.nanoTime();
+            metrics.observerLatencyUs.record((startNanos - receivedNanos) / 1000);
+            if (batchLocationObserver!=null) {
+                batchLocationObserver.onLocations(locations);
+            } else {
+                for (int i = 0, n = locations.size(); i < n; i++) {
+                    locationObserver.onLocation(locations.get(i));
+                }
+            }
+            dispatchUs.record((System.nanoTime() - startNanos) / 1000);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.johnnylambada.locationservice;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The delivery threads an observer can choose from. Any other {@link Executor} may be used as
+ * well, for example a single thread executor owned by a persistence layer.
+ */
+public final class LocationExecutors {
+
+    private static final Executor WORKER = Runnable::run;
+
+    /**
+     * Holds the main executor so its Handler is only created once it is first used.
+     */
+    private static final class Main {
+        private static final Executor EXECUTOR = new Executor() {
+            private final Handler handler = new Handler(Looper.getMainLooper());
+
+            @Override public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    private LocationExecutors(){
+    }
+
+    /**
+     * Delivers on the main thread. Suitable for observers that touch the UI.
+     */
+    public static Executor main(){
+        return Main.EXECUTOR;
+    }
+
+    /**
+     * Delivers directly on the service's location worker thread, with no hand-off. Observers
+     * using it must be quick since they delay every observer after them.
+     */
+    public static Executor worker(){
+        return WORKER;
+    }
+}
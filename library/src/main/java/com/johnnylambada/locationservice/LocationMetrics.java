@@ -0,0 +1,60 @@
+package com.johnnylambada.locationservice;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The hot path's counters and histograms. Everything is an atomic or a {@link Histogram}, so
+ * recording costs a few atomic increments and can stay on in production. Read it with
+ * {@link LocationServiceController#getMetrics()}.
+ */
+class LocationMetrics {
+    /**
+     * Milliseconds between when a fix was computed and when the service received it.
+     */
+    final Histogram fixAgeMs = new Histogram();
+
+    /**
+     * Microseconds between the provider callback and the start of each observer call.
+     */
+    final Histogram observerLatencyUs = new Histogram();
+
+    /**
+     * Microseconds LocationService.onCreate spends on the main thread.
+     */
+    final Histogram serviceCreateUs = new Histogram();
+
+    /**
+     * Microseconds of each setup step that onCreate hands to the worker thread.
+     */
+    final Histogram serviceSetupUs = new Histogram();
+
+    /**
+     * Milliseconds from LocationService.onCreate to the first accepted fix.
+     */
+    final Histogram timeToFirstFixMs = new Histogram();
+
+    final AtomicLong fixesReceived = new AtomicLong();
+    final AtomicLong fixesDropped = new AtomicLong();
+    final AtomicLong notificationsCoalesced = new AtomicLong();
+    final AtomicLong providerRegistrations = new AtomicLong();
+    final AtomicLong foregroundTransitions = new AtomicLong();
+    final AtomicLong backgroundFlushes = new AtomicLong();
+
+    MetricsSnapshot snapshot(Map<String, HistogramSnapshot> observerDispatchUs){
+        return new MetricsSnapshot(
+                fixAgeMs.snapshot(),
+                observerLatencyUs.snapshot(),
+                observerDispatchUs,
+                serviceCreateUs.snapshot(),
+                serviceSetupUs.snapshot(),
+                timeToFirstFixMs.snapshot(),
+                fixesReceived.get(),
+                fixesDropped.get(),
+                notificationsCoalesced.get(),
+                providerRegistrations.get(),
+                foregroundTransitions.get(),
+                backgroundFlushes.get()
+        );
+    }
+}
@@ -0,0 +1,447 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything the service does with a batch of fixes from its {@link LocationSource}: filtering,
+ * adaptive sampling, simplification, smoothing, recording, sharing, statistics and dispatch to
+ * the observers. It holds no reference to the service or a {@code Context}, so a
+ * {@link ReplayLocationSource} can drive it on a plain JVM.
+ *
+ * {@link #onLocations} must only be called on one thread at a time, the service's worker thread.
+ */
+final class LocationPipeline implements BatchLocationObserver {
+
+    /**
+     * What the pipeline needs from the service.
+     */
+    interface Host {
+        /**
+         * Adaptive sampling inferred a new motion state and wants the source re-registered
+         * with this request.
+         */
+        void onMotionStateChanged(MotionState state, LocationRequestSpec spec);
+
+        /**
+         * Accepted fixes were dispatched; {@link #getLocation()} is the newest.
+         */
+        void onLocationsAccepted(List<Location> locations);
+    }
+
+    private final LocationServiceConfiguration configuration;
+    private final LocationProcessorChain processorChain;
+    private final LocationDispatcher dispatcher;
+    private final LocationMetrics metrics;
+    private final Odometer odometer;
+    private final Host host;
+
+    /**
+     * The current location.
+     */
+    private volatile Location location;
+
+    /**
+     * The request the source should be registered with.
+     */
+    private volatile LocationRequestSpec requestSpec;
+
+    /**
+     * Retunes {@link #requestSpec} as the device's motion changes, or null if adaptive sampling
+     * is off.
+     */
+    private final AdaptiveSampler adaptiveSampler;
+
+    /**
+     * History of every fix, or null if track recording is off.
+     */
+    private final TrackStore trackStore;
+
+    /**
+     * The most recent fixes, or null if the buffer is off.
+     */
+    private final RecentFixBuffer recentFixes;
+
+    /**
+     * Produces the {@link LocationStream#SIMPLIFIED} stream, or null if simplification is off.
+     */
+    private final TrackSimplifier trackSimplifier;
+
+    /**
+     * The raw fix last fed to {@link #trackSimplifier}, which it may keep on the next fix.
+     */
+    private Location previousRawLocation;
+
+    /**
+     * Produces the {@link LocationStream#SMOOTHED} stream, or null if smoothing is off.
+     */
+    private final KalmanSmoother kalmanSmoother;
+
+    /**
+     * Reports trips and stays, or null if trip segmentation is off.
+     */
+    private final TripSegmenter tripSegmenter;
+
+    /**
+     * Shares accepted fixes with other processes, or null if sharing is off or the ring
+     * couldn't be opened.
+     */
+    private SharedFixRing sharedFixRing;
+
+    /**
+     * True while no client is bound and fixes are buffered rather than dispatched, see
+     * {@link LocationServiceConfiguration#isBatchingInBackground()}.
+     */
+    private boolean headless;
+
+    // Accepted fixes waiting for the next flush, by stream. Replaced, never cleared, on flush
+    // since observers on other executors may still be reading the flushed lists.
+    private List<Location> pendingRaw = new ArrayList<>();
+    private List<Location> pendingSimplified = new ArrayList<>();
+    private List<Location> pendingSmoothed = new ArrayList<>();
+
+    /**
+     * @param trackStore  where fixes are recorded, or null if track recording is off
+     * @param tripObserver told about trips and stays if trip segmentation is on
+     */
+    LocationPipeline(
+            LocationServiceConfiguration configuration,
+            LocationProcessorChain processorChain,
+            LocationDispatcher dispatcher,
+            LocationMetrics metrics,
+            Odometer odometer,
+            TripObserver tripObserver,
+            TrackStore trackStore,
+            Host host
+    ){
+        this.configuration = configuration;
+        this.processorChain = processorChain;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.odometer = odometer;
+        this.trackStore = trackStore;
+        this.host = host;
+
+        this.recentFixes = configuration.getRecentFixCapacity() > 0
+                ? new RecentFixBuffer(configuration.getRecentFixCapacity())
+                : null;
+
+        this.trackSimplifier = configuration.isSimplifying()
+                ? new TrackSimplifier(
+                        configuration.getSimplificationToleranceM(),
+                        configuration.getSimplificationMaxPoints(),
+                        configuration.getSimplificationMaxLatencyMs())
+                : null;
+
+        this.kalmanSmoother = configuration.isSmoothing()
+                ? new KalmanSmoother(configuration.getSmoothingAccelerationMps2())
+                : null;
+
+        this.tripSegmenter = configuration.isSegmentingTrips()
+                ? new TripSegmenter(
+                        configuration.getStayRadiusM(),
+                        configuration.getStayMinDurationMs(),
+                        tripObserver)
+                : null;
+
+        if (configuration.isAdaptiveSampling()) {
+            this.adaptiveSampler = new AdaptiveSampler(
+                    configuration.getAdaptiveSampling(),
+                    MotionState.WALKING);
+            this.requestSpec = adaptiveSampler.getSpec();
+        } else {
+            this.adaptiveSampler = null;
+            this.requestSpec = configuration.getLocationRequestSpec();
+        }
+    }
+
+    Location getLocation(){
+        return location;
+    }
+
+    LocationRequestSpec getRequestSpec(){
+        return requestSpec;
+    }
+
+    TrackStore getTrackStore(){
+        return trackStore;
+    }
+
+    RecentFixBuffer getRecentFixes(){
+        return recentFixes;
+    }
+
+    /**
+     * Makes a fix cached by an earlier run the current location and delivers it to the
+     * {@link LocationStream#RAW} observers, if no fix has arrived yet and the stateless gates,
+     * {@link LocationProcessors#maxAccuracyM} and {@link LocationProcessors#maxAgeMs}, accept it.
+     * Stateful gates and custom processors never see it, so the first real fix isn't compared
+     * against it. It goes through no other stage. Worker thread only.
+     *
+     * @return true if the cached fix is now the current location
+     */
+    boolean offerCachedLocation(Location cached){
+        if (location != null || !processorChain.acceptsStateless(cached)) {
+            return false;
+        }
+        location = cached;
+        dispatcher.dispatch(LocationStream.RAW, Collections.singletonList(cached),
+                System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Starts publishing accepted fixes to the ring, or stops if it is null. Worker thread only.
+     */
+    void setSharedFixRing(SharedFixRing sharedFixRing){
+        this.sharedFixRing = sharedFixRing;
+    }
+
+    SharedFixRing getSharedFixRing(){
+        return sharedFixRing;
+    }
+
+    /**
+     * Starts buffering accepted fixes for {@link #flush()}, or delivers the buffered fixes and
+     * goes back to delivering each batch as it arrives. Does nothing unless background batching
+     * is configured.
+     */
+    void setHeadless(boolean headless){
+        if (!configuration.isBatchingInBackground()) {
+            return;
+        }
+        if (!headless) {
+            flush();
+        }
+        this.headless = headless;
+    }
+
+    /**
+     * Called when no more fixes are coming. Ends the {@link LocationStream#SIMPLIFIED} stream at
+     * the newest fix, which the simplifier would otherwise hold until the next one arrives, and
+     * flushes.
+     */
+    void endStream(){
+        if (trackSimplifier != null && trackSimplifier.flush()) {
+            pendingSimplified.add(previousRawLocation);
+            if (trackStore != null && configuration.getTrackStream() == LocationStream.SIMPLIFIED) {
+                trackStore.append(previousRawLocation);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Delivers the buffered fixes to the observers in one batch per stream, and tells the host
+     * they were accepted. The simplified stream only gets what the simplifier has already let
+     * through; see {@link #endStream()}.
+     *
+     * @return true if a batch of new fixes was delivered
+     */
+    boolean flush(){
+        if (pendingRaw.isEmpty() && pendingSimplified.isEmpty()) {
+            return false;
+        }
+        final List<Location> raw = pendingRaw;
+        final List<Location> simplified = pendingSimplified;
+        final List<Location> smoothed = pendingSmoothed;
+        pendingRaw = new ArrayList<>();
+        pendingSimplified = new ArrayList<>();
+        pendingSmoothed = new ArrayList<>();
+        dispatch(raw, simplified, smoothed, System.nanoTime());
+        if (raw.isEmpty()) {
+            return false;
+        }
+        host.onLocationsAccepted(raw);
+        return true;
+    }
+
+    /**
+     * Handles a batch of locations, oldest first. Without batching the batch holds a single fix.
+     */
+    @Override
+    public void onLocations(List<Location> unfiltered) {
+        final long receivedNanos = System.nanoTime();
+        // Recorded or replayed fixes carry no elapsed realtime, and no meaningful age.
+        long nowElapsedNanos = 0;
+        for (int i = 0, n = unfiltered.size(); i < n; i++) {
+            final long elapsedNanos = unfiltered.get(i).getElapsedRealtimeNanos();
+            if (elapsedNanos == 0) {
+                continue;
+            }
+            if (nowElapsedNanos == 0) {
+                nowElapsedNanos = SystemClock.elapsedRealtimeNanos();
+            }
+            metrics.fixAgeMs.record((nowElapsedNanos - elapsedNanos) / 1000000);
+        }
+        metrics.fixesReceived.addAndGet(unfiltered.size());
+
+        // Reject junk before anything downstream spends work on it.
+        final List<Location> locations = processorChain.filter(unfiltered);
+        if (locations.size() != unfiltered.size()) {
+            metrics.fixesDropped.addAndGet(unfiltered.size() - locations.size());
+        }
+        if (locations.isEmpty()) {
+            return;
+        }
+
+        location = locations.get(locations.size() - 1);
+
+        if (adaptiveSampler != null) {
+            updateAdaptiveSampling(locations);
+        }
+
+        final List<Location> simplified = trackSimplifier != null
+                ? simplify(locations)
+                : Collections.<Location>emptyList();
+        final List<Location> smoothed = kalmanSmoother != null
+                ? smooth(locations)
+                : Collections.<Location>emptyList();
+
+        if (recentFixes != null) {
+            for (int i = 0, n = locations.size(); i < n; i++) {
+                recentFixes.add(locations.get(i));
+            }
+        }
+        if (trackStore != null) {
+            final List<Location> recorded;
+            switch (configuration.getTrackStream()) {
+                case SIMPLIFIED: recorded = simplified; break;
+                case SMOOTHED: recorded = smoothed; break;
+                default: recorded = locations; break;
+            }
+            for (int i = 0, n = recorded.size(); i < n; i++) {
+                trackStore.append(recorded.get(i));
+            }
+        }
+
+        if (sharedFixRing != null) {
+            for (int i = 0, n = locations.size(); i < n; i++) {
+                sharedFixRing.publish(locations.get(i));
+            }
+        }
+
+        // The smoothed fixes jitter less, so they inflate the distance less and break fewer
+        // stays apart.
+        final List<Location> measured = kalmanSmoother != null ? smoothed : locations;
+        for (int i = 0, n = measured.size(); i < n; i++) {
+            final Location fix = measured.get(i);
+            odometer.add(fix.getTime(), fix.getLatitude(), fix.getLongitude(),
+                    fix.hasAltitude() ? fix.getAltitude() : Double.NaN,
+                    fix.hasSpeed() ? fix.getSpeed() : Float.NaN);
+            if (tripSegmenter != null) {
+                tripSegmenter.add(fix.getTime(), fix.getLatitude(), fix.getLongitude());
+            }
+        }
+
+        if (headless) {
+            pendingRaw.addAll(locations);
+            pendingSimplified.addAll(simplified);
+            pendingSmoothed.addAll(smoothed);
+            if (pendingRaw.size() >= configuration.getBackgroundBufferSize() && flush()) {
+                metrics.backgroundFlushes.incrementAndGet();
+            }
+            return;
+        }
+
+        dispatch(locations, simplified, smoothed, receivedNanos);
+        host.onLocationsAccepted(locations);
+    }
+
+    /**
+     * Hands the locations directly to the in-process observers.
+     */
+    private void dispatch(List<Location> locations, List<Location> simplified,
+                          List<Location> smoothed, long receivedNanos) {
+        if (!locations.isEmpty()) {
+            dispatcher.dispatch(LocationStream.RAW, locations, receivedNanos);
+        }
+        if (!simplified.isEmpty()) {
+            dispatcher.dispatch(LocationStream.SIMPLIFIED, simplified, receivedNanos);
+        }
+        if (!smoothed.isEmpty()) {
+            dispatcher.dispatch(LocationStream.SMOOTHED, smoothed, receivedNanos);
+        }
+    }
+
+    /**
+     * Runs the locations through the simplifier and returns the fixes it keeps, usually none.
+     */
+    private List<Location> simplify(List<Location> locations) {
+        List<Location> kept = Collections.emptyList();
+        for (int i = 0, n = locations.size(); i < n; i++) {
+            final Location location = locations.get(i);
+            final int result = trackSimplifier.add(
+                    location.getTime(), location.getLatitude(), location.getLongitude());
+            final Location keep = result == TrackSimplifier.KEEP_CURRENT ? location
+                    : result == TrackSimplifier.KEEP_PREVIOUS ? previousRawLocation
+                    : null;
+            previousRawLocation = location;
+            if (keep == null) {
+                continue;
+            }
+            if (kept.isEmpty()) {
+                kept = Collections.singletonList(keep);
+            } else {
+                if (kept.size() == 1) {
+                    kept = new ArrayList<>(kept);
+                }
+                kept.add(keep);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Runs the locations through the Kalman filter and returns a copy of each with the filter's
+     * estimate of position, speed, bearing and accuracy.
+     */
+    private List<Location> smooth(List<Location> locations) {
+        final int n = locations.size();
+        final List<Location> smoothed = n == 1 ? null : new ArrayList<>(n);
+        Location estimate = null;
+        for (int i = 0; i < n; i++) {
+            final Location location = locations.get(i);
+            kalmanSmoother.update(
+                    location.getTime(),
+                    location.getLatitude(),
+                    location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+            estimate = new Location(location);
+            estimate.setLatitude(kalmanSmoother.getLatitude());
+            estimate.setLongitude(kalmanSmoother.getLongitude());
+            estimate.setSpeed(kalmanSmoother.getSpeedMps());
+            estimate.setBearing(kalmanSmoother.getBearingDeg());
+            estimate.setAccuracy(kalmanSmoother.getAccuracyM());
+            if (smoothed != null) {
+                smoothed.add(estimate);
+            }
+        }
+        return smoothed != null ? smoothed : Collections.singletonList(estimate);
+    }
+
+    /**
+     * Feeds the adaptive sampler and tells the host if the motion state changed.
+     */
+    private void updateAdaptiveSampling(List<Location> locations) {
+        boolean changed = false;
+        for (int i = 0, n = locations.size(); i < n; i++) {
+            final Location location = locations.get(i);
+            changed |= adaptiveSampler.update(
+                    location.getTime(),
+                    location.getLatitude(),
+                    location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : 0,
+                    location.hasSpeed() ? location.getSpeed() : Float.NaN);
+        }
+        if (!changed) {
+            return;
+        }
+        requestSpec = adaptiveSampler.getSpec();
+        host.onMotionStateChanged(adaptiveSampler.getState(), requestSpec);
+    }
+}
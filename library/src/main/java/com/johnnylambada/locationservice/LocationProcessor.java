@@ -0,0 +1,16 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+/**
+ * A stage that runs on every fix before it is recorded or dispatched, see
+ * {@link LocationServiceConfiguration.Builder#addProcessor(LocationProcessor)}. Processors run in
+ * the order they were added on the service's worker thread; the first one to reject a fix drops
+ * it for everyone downstream. {@link LocationProcessors} has the built-in gates.
+ */
+public interface LocationProcessor {
+    /**
+     * Returns true to pass the location on, false to drop it.
+     */
+    boolean process(Location location);
+}
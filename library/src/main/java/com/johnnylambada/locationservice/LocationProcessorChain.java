@@ -0,0 +1,91 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs the configured {@link LocationProcessor}s over each batch and counts what every stage
+ * drops. Only the service's worker thread filters; the counts can be read from any thread.
+ */
+class LocationProcessorChain {
+
+    private final LocationProcessor[] processors;
+    private final AtomicLongArray dropCounts;
+
+    LocationProcessorChain(List<LocationProcessor> processors){
+        this.processors = processors.toArray(new LocationProcessor[0]);
+        this.dropCounts = new AtomicLongArray(this.processors.length);
+    }
+
+    boolean isEmpty(){
+        return processors.length == 0;
+    }
+
+    /**
+     * Returns the locations every processor accepted, in order. Returns the given list itself
+     * when nothing is dropped, which is the common case, so it only allocates when it drops.
+     */
+    List<Location> filter(List<Location> locations){
+        if (processors.length == 0) {
+            return locations;
+        }
+        List<Location> accepted = null;
+        for (int i = 0, n = locations.size(); i < n; i++) {
+            final Location location = locations.get(i);
+            final boolean keep = accept(location);
+            if (!keep && accepted == null) {
+                accepted = new ArrayList<>(n);
+                accepted.addAll(locations.subList(0, i));
+            } else if (keep && accepted != null) {
+                accepted.add(location);
+            }
+        }
+        if (accepted == null) {
+            return locations;
+        }
+        return accepted.isEmpty() ? Collections.<Location>emptyList() : accepted;
+    }
+
+    /**
+     * Returns true if every {@link LocationProcessors.Stateless} gate accepts the location,
+     * without counting it as a drop if one doesn't. The other processors don't see it, so it
+     * can't become the last fix a stateful gate passed. For fixes that didn't come from the
+     * provider, such as a cached one.
+     */
+    boolean acceptsStateless(Location location){
+        for (int i = 0; i < processors.length; i++) {
+            if (processors[i] instanceof LocationProcessors.Stateless
+                    && !processors[i].process(location)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean accept(Location location){
+        for (int i = 0; i < processors.length; i++) {
+            if (!processors[i].process(location)) {
+                dropCounts.incrementAndGet(i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many fixes each processor dropped, in chain order.
+     */
+    Map<LocationProcessor, Long> getDropCounts(){
+        final Map<LocationProcessor, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < processors.length; i++) {
+            counts.put(processors[i], dropCounts.get(i));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,109 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+/**
+ * Built-in {@link LocationProcessor} gates. Stateless gates are cheapest and should come first;
+ * {@link #minDisplacementM} and {@link #minTimeMs} compare against the last fix they passed, so
+ * they belong after any gate that might still reject it.
+ */
+public final class LocationProcessors {
+
+    private LocationProcessors(){
+    }
+
+    /**
+     * Marks the gates that keep no state between fixes, so a fix can be checked against them
+     * without affecting what they do with the next one.
+     */
+    interface Stateless extends LocationProcessor {
+    }
+
+    /**
+     * Drops fixes without an accuracy or with an accuracy radius above the given meters.
+     */
+    public static LocationProcessor maxAccuracyM(float maxAccuracyM){
+        return new Stateless() {
+            @Override public boolean process(Location location) {
+                return location.hasAccuracy() && location.getAccuracy() <= maxAccuracyM;
+            }
+
+            @Override public String toString() {
+                return "maxAccuracyM(" + maxAccuracyM + ")";
+            }
+        };
+    }
+
+    /**
+     * Drops fixes that were computed more than the given time before they arrived, such as stale
+     * cached fixes. With batching, allow at least the max wait time. Fixes without an elapsed
+     * realtime, such as fixes read back from disk, are aged by their wall clock time instead.
+     */
+    public static LocationProcessor maxAgeMs(long maxAgeMs){
+        final long maxAgeNs = maxAgeMs * 1000000L;
+        return new Stateless() {
+            @Override public boolean process(Location location) {
+                final long elapsedNanos = location.getElapsedRealtimeNanos();
+                if (elapsedNanos == 0) {
+                    return System.currentTimeMillis() - location.getTime() <= maxAgeMs;
+                }
+                return SystemClock.elapsedRealtimeNanos() - elapsedNanos <= maxAgeNs;
+            }
+
+            @Override public String toString() {
+                return "maxAgeMs(" + maxAgeMs + ")";
+            }
+        };
+    }
+
+    /**
+     * Drops fixes closer than the given meters to the last fix this gate passed, such as the
+     * repeated fixes of a parked device.
+     */
+    public static LocationProcessor minDisplacementM(float minDisplacementM){
+        return new LocationProcessor() {
+            private boolean hasLast;
+            private double lastLat;
+            private double lastLon;
+
+            @Override public boolean process(Location location) {
+                final double lat = location.getLatitude();
+                final double lon = location.getLongitude();
+                if (hasLast && GeoMath.equirectangular(lastLat, lastLon, lat, lon) < minDisplacementM) {
+                    return false;
+                }
+                hasLast = true;
+                lastLat = lat;
+                lastLon = lon;
+                return true;
+            }
+
+            @Override public String toString() {
+                return "minDisplacementM(" + minDisplacementM + ")";
+            }
+        };
+    }
+
+    /**
+     * Drops fixes less than the given time after the last fix this gate passed.
+     */
+    public static LocationProcessor minTimeMs(long minTimeMs){
+        return new LocationProcessor() {
+            private long lastTimeMs = Long.MIN_VALUE;
+
+            @Override public boolean process(Location location) {
+                final long timeMs = location.getTime();
+                if (lastTimeMs != Long.MIN_VALUE && timeMs - lastTimeMs < minTimeMs) {
+                    return false;
+                }
+                lastTimeMs = timeMs;
+                return true;
+            }
+
+            @Override public String toString() {
+                return "minTimeMs(" + minTimeMs + ")";
+            }
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * What a location request asks of the provider: how often, how accurately and how far apart.
+ * Priorities use the same values as {@code com.google.android.gms.location.LocationRequest}.
+ */
+public class LocationRequestSpec {
+    public static final int PRIORITY_HIGH_ACCURACY = 100;
+    public static final int PRIORITY_BALANCED_POWER_ACCURACY = 102;
+    public static final int PRIORITY_LOW_POWER = 104;
+    public static final int PRIORITY_NO_POWER = 105;
+
+    private final long intervalMs;
+    private final long fastestIntervalMs;
+    private final int priority;
+    private final float smallestDisplacementM;
+
+    private LocationRequestSpec(
+            long intervalMs,
+            long fastestIntervalMs,
+            int priority,
+            float smallestDisplacementM
+    ){
+        this.intervalMs = intervalMs;
+        this.fastestIntervalMs = fastestIntervalMs;
+        this.priority = priority;
+        this.smallestDisplacementM = smallestDisplacementM;
+    }
+
+    /**
+     * The desired interval for location updates. Inexact. Updates may be more or less frequent.
+     */
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * The fastest rate for active location updates. Updates will never be more frequent
+     * than this value.
+     */
+    public long getFastestIntervalMs() {
+        return fastestIntervalMs;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * The smallest distance in meters between two updates.
+     */
+    public float getSmallestDisplacementM() {
+        return smallestDisplacementM;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LocationRequestSpec)) return false;
+        LocationRequestSpec that = (LocationRequestSpec) o;
+        return intervalMs == that.intervalMs
+                && fastestIntervalMs == that.fastestIntervalMs
+                && priority == that.priority
+                && Float.compare(that.smallestDisplacementM, smallestDisplacementM) == 0;
+    }
+
+    @Override public int hashCode() {
+        int result = (int) (intervalMs ^ (intervalMs >>> 32));
+        result = 31 * result + (int) (fastestIntervalMs ^ (fastestIntervalMs >>> 32));
+        result = 31 * result + priority;
+        result = 31 * result + Float.floatToIntBits(smallestDisplacementM);
+        return result;
+    }
+
+    @Override public String toString() {
+        return "LocationRequestSpec{intervalMs=" + intervalMs
+                + ", fastestIntervalMs=" + fastestIntervalMs
+                + ", priority=" + priority
+                + ", smallestDisplacementM=" + smallestDisplacementM + "}";
+    }
+
+    public static class Builder {
+        private long intervalMs = 10000; // 10 seconds
+        private long fastestIntervalMs = -1;
+        private int priority = PRIORITY_HIGH_ACCURACY;
+        private float smallestDisplacementM = 0;
+
+        /**
+         * The desired interval for location updates. Inexact. Updates may be more or less frequent.
+         */
+        public Builder intervalMs(long intervalMs){
+            this.intervalMs = intervalMs;
+            return this;
+        }
+
+        /**
+         * The fastest rate for active location updates. Defaults to half the interval.
+         */
+        public Builder fastestIntervalMs(long fastestIntervalMs){
+            this.fastestIntervalMs = fastestIntervalMs;
+            return this;
+        }
+
+        public Builder priority(int priority){
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder smallestDisplacementM(float smallestDisplacementM){
+            this.smallestDisplacementM = smallestDisplacementM;
+            return this;
+        }
+
+        public LocationRequestSpec build(){
+            if (intervalMs<0){
+                throw new IllegalArgumentException("intervalMs can't be negative");
+            }
+            if (smallestDisplacementM<0){
+                throw new IllegalArgumentException("smallestDisplacementM can't be negative");
+            }
+            if (priority!=PRIORITY_HIGH_ACCURACY
+                    && priority!=PRIORITY_BALANCED_POWER_ACCURACY
+                    && priority!=PRIORITY_LOW_POWER
+                    && priority!=PRIORITY_NO_POWER){
+                throw new IllegalArgumentException("unknown priority " + priority);
+            }
+            return new LocationRequestSpec(
+                    intervalMs,
+                    fastestIntervalMs<0
+                            ? intervalMs / 2
+                            : fastestIntervalMs,
+                    priority,
+                    smallestDisplacementM
+            );
+        }
+    }
+}
@@ -15,7 +15,6 @@
 
 package com.johnnylambada.locationservice;
 
-import android.app.ActivityManager;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
@@ -28,16 +27,15 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
-import com.google.android.gms.location.LocationServices;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * A bound and started service that is promoted to a foreground service when location updates have
@@ -54,9 +52,23 @@ public class LocationService extends Service {
 
     private LocationServiceController mController = LocationServiceController.INSTANCE;
 
+    /**
+     * The extra fixes used to be broadcast in, see
+     * {@link LocationServiceConfiguration#getActionBroadcast()}.
+     *
+     * @deprecated fixes are no longer broadcast; register a {@link LocationObserver} with
+     * {@link LocationServiceController} instead. This will be removed in the next release.
+     */
+    @Deprecated
     public static final String EXTRA_LOCATION = "EXTRA_LOCATION";
     public static final String EXTRA_STARTED_FROM_NOTIFICATION = "EXTRA_STARTED_FROM_NOTIFICATION";
 
+    /**
+     * Set in the extras of a fix that was cached by an earlier run of the service rather than
+     * just computed, see {@link #isCached(Location)}.
+     */
+    public static final String EXTRA_CACHED = "EXTRA_CACHED";
+
     private final IBinder mBinder = new LocalBinder();
 
     /**
@@ -64,6 +76,11 @@ public class LocationService extends Service {
      */
     private static final int NOTIFICATION_ID = 12345678;
 
+    /**
+     * Where the track is recorded, relative to the files directory.
+     */
+    private static final String TRACK_DIRECTORY = "locationservice/track";
+
     /**
      * Used to check whether the bound activity has really gone away and not unbound as part of an
      * orientation change. We create a foreground service notification only if the former takes
@@ -74,67 +91,237 @@ public class LocationService extends Service {
     private NotificationManager mNotificationManager;
 
     /**
-     * Contains parameters used by {@link com.google.android.gms.location.FusedLocationProviderApi}.
+     * Where the service is in its foreground lifecycle. The service makes every
+     * startForeground/stopForeground call itself, so this is tracked here rather than asked of
+     * the ActivityManager.
+     */
+    private enum ForegroundState {
+        /** Not a foreground service. */
+        BACKGROUND,
+        /** startForegroundService has been called and startForeground is due in onStartCommand. */
+        PROMOTING,
+        /** startForeground has been called. */
+        FOREGROUND
+    }
+
+    private volatile ForegroundState mForegroundState = ForegroundState.BACKGROUND;
+
+    /**
+     * Set when startForegroundService has been called. The system requires a matching
+     * startForeground even if a client rebinds before onStartCommand arrives.
+     */
+    private boolean mStartForegroundDue = false;
+
+    /**
+     * Where fixes come from, the Fused Location Provider unless configured otherwise. Created
+     * when it is first needed, see {@link #source()}, and like every call to it, on the worker
+     * thread.
+     */
+    private LocationSource mLocationSource;
+
+    /**
+     * True once the notification channel exists. It is only needed to run in the foreground,
+     * so it is created with the first request for updates.
+     */
+    private boolean mNotificationChannelCreated = false;
+
+    /**
+     * When onCreate started, for the time to first fix.
+     */
+    private long mCreateNanos;
+
+    /**
+     * True until the first fix of this service instance is accepted. Worker thread only.
      */
-    private LocationRequest mLocationRequest;
+    private boolean mFirstFixPending = true;
 
     /**
-     * Provides access to the Fused Location Provider API.
+     * Processes every batch of fixes from {@link #mLocationSource} on the worker thread.
      */
-    private FusedLocationProviderClient mFusedLocationClient;
+    private LocationPipeline mPipeline;
 
     /**
-     * Callback for changes in location.
+     * The request the source is registered with, or null if it isn't. Worker thread only.
      */
-    private LocationCallback mLocationCallback;
+    private LocationRequestSpec mRegisteredSpec;
 
+    /**
+     * The max wait time the source is registered with. Worker thread only.
+     */
+    private long mRegisteredMaxWaitTimeMs;
+
+    /**
+     * Registers the pipeline with the source on the worker thread.
+     */
+    private final Runnable mRegisterSource = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                registerSource();
+            } catch (SecurityException unlikely) {
+                mController.setRequestingLocationUpdates(LocationService.this, false);
+                Log.e(TAG, "Lost location permission. Could not request updates. " + unlikely);
+            }
+        }
+    };
+
+    /**
+     * Re-registers with the source on the worker thread if the request has changed.
+     */
+    private final Runnable mUpdateRequest = new Runnable() {
+        @Override
+        public void run() {
+            if (mRegisteredSpec == null
+                    || mController.getRequestMultiplexer().resolve(mPipeline.getRequestSpec())
+                            .equals(mRegisteredSpec)
+                    && getMaxWaitTimeMs() == mRegisteredMaxWaitTimeMs) {
+                return;
+            }
+            try {
+                registerSource();
+            } catch (SecurityException unlikely) {
+                Log.e(TAG, "Lost location permission. Could not update request. " + unlikely);
+            }
+        }
+    };
+
+    /**
+     * Unregisters the pipeline from the source on the worker thread.
+     */
+    private final Runnable mUnregisterSource = new Runnable() {
+        @Override
+        public void run() {
+            if (mLocationSource != null) {
+                mLocationSource.removeLocationUpdates(mPipeline);
+            }
+            mRegisteredSpec = null;
+            mPipeline.endStream();
+        }
+    };
+
+    /**
+     * Delivers the fixes buffered while headless, every
+     * {@link LocationServiceConfiguration#getBackgroundFlushIntervalMs()}.
+     */
+    private final Runnable mBackgroundFlush = new Runnable() {
+        @Override
+        public void run() {
+            if (mPipeline.flush()) {
+                mController.getLocationMetrics().backgroundFlushes.incrementAndGet();
+            }
+            mServiceHandler.postDelayed(this,
+                    mController.getConfiguration().getBackgroundFlushIntervalMs());
+        }
+    };
+
+    /**
+     * Keeps the last accepted fix for the next start, or null if caching is off.
+     */
+    private LastFixCache mLastFixCache;
+
+    /**
+     * Runs on the worker thread below. Location callbacks and observer dispatch happen there so
+     * they never compete with the main thread.
+     */
     private Handler mServiceHandler;
 
+    private HandlerThread mHandlerThread;
+
+    /**
+     * Uptime of the last foreground notification update, used to rate limit them.
+     */
+    private long mLastNotificationUptimeMs;
+
     /**
-     * The current location.
+     * True while a coalesced notification update is scheduled on the worker thread.
      */
-    private Location mLocation;
+    private boolean mNotificationUpdatePending = false;
+
+    private final Runnable mPostNotification = () -> {
+        mNotificationUpdatePending = false;
+        postNotification();
+    };
 
     public LocationService() {
     }
 
     @Override
     public void onCreate() {
-        mFusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        mCreateNanos = System.nanoTime();
+        final LocationMetrics metrics = mController.getLocationMetrics();
+        mHandlerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mHandlerThread.start();
+        mServiceHandler = new Handler(mHandlerThread.getLooper());
+
+        TrackStore trackStore = null;
+        if (mController.getConfiguration().isRecordingTrack()) {
+            trackStore = TrackStore.open(
+                    new File(getFilesDir(), TRACK_DIRECTORY),
+                    mController.getConfiguration().getTrackRecordsPerSegment(),
+                    mController.getConfiguration().getTrackMaxSegments());
+        }
 
-        mLocationCallback = new LocationCallback() {
-            @Override
-            public void onLocationResult(LocationResult locationResult) {
-                super.onLocationResult(locationResult);
-                onNewLocation(locationResult.getLastLocation());
-            }
-        };
+        mPipeline = new LocationPipeline(
+                mController.getConfiguration(),
+                mController.getProcessorChain(),
+                mController.getDispatcher(),
+                metrics,
+                mController.getOdometer(),
+                mController.getTripDispatcher(),
+                trackStore,
+                mPipelineHost);
+
+        final Location cached;
+        if (mController.getConfiguration().isCachingLastFix()) {
+            mLastFixCache = new LastFixCache(new File(getFilesDir(), LastFixCache.FILE_NAME));
+            cached = mLastFixCache.load();
+        } else {
+            cached = null;
+        }
 
-        createLocationRequest();
-        requestLastLocation();
+        if (mController.getConfiguration().isSharingFixes()) {
+            final File file = new File(getFilesDir(), SharedFixReader.FILE_NAME);
+            final int capacity = mController.getConfiguration().getSharedFixCapacity();
+            mServiceHandler.post(() -> {
+                final long setupNanos = System.nanoTime();
+                try {
+                    mPipeline.setSharedFixRing(SharedFixRing.open(file, capacity));
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not open shared fix ring " + file, e);
+                }
+                metrics.serviceSetupUs.record((System.nanoTime() - setupNanos) / 1000);
+            });
+        }
 
-        HandlerThread handlerThread = new HandlerThread(TAG);
-        handlerThread.start();
-        mServiceHandler = new Handler(handlerThread.getLooper());
-        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        // The provider is only needed this early if there is no usable cached fix to show;
+        // otherwise it is set up with the first request for updates.
+        mServiceHandler.post(() -> {
+            final long setupNanos = System.nanoTime();
+            if (cached == null || !mPipeline.offerCachedLocation(cached)) {
+                requestLastLocation();
+            }
+            metrics.serviceSetupUs.record((System.nanoTime() - setupNanos) / 1000);
+        });
 
-        // Android O requires a Notification Channel.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            // Create the channel for the notification
-            NotificationChannel mChannel =
-                    new NotificationChannel(
-                            mController.getConfiguration().getChannel(),
-                            mController.getConfiguration().getAppName(),
-                            mController.getConfiguration().getNotificationImportance());
+        mController.getRequestMultiplexer().setListener(this::updateRequest);
 
-            // Set the Notification Channel for the Notification Manager.
-            mNotificationManager.createNotificationChannel(mChannel);
-        }
+        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        metrics.serviceCreateUs.record((System.nanoTime() - mCreateNanos) / 1000);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.i(TAG, "Service started");
+        if (mStartForegroundDue) {
+            mStartForegroundDue = false;
+            startForeground(NOTIFICATION_ID, mController.getNotification(mPipeline.getLocation()));
+            if (mForegroundState == ForegroundState.PROMOTING) {
+                mForegroundState = ForegroundState.FOREGROUND;
+            } else {
+                // A client came back while we were being promoted.
+                stopForeground(true);
+            }
+        }
         boolean startedFromNotification = intent.getBooleanExtra(EXTRA_STARTED_FROM_NOTIFICATION,
                 false);
 
@@ -159,7 +346,7 @@ public class LocationService extends Service {
         // and binds with this service. The service should cease to be a foreground service
         // when that happens.
         Log.i(TAG, "in onBind()");
-        stopForeground(true);
+        exitForeground();
         mChangingConfiguration = false;
         return mBinder;
     }
@@ -170,7 +357,7 @@ public class LocationService extends Service {
         // and binds once again with this service. The service should cease to be a foreground
         // service when that happens.
         Log.i(TAG, "in onRebind()");
-        stopForeground(true);
+        exitForeground();
         mChangingConfiguration = false;
         super.onRebind(intent);
     }
@@ -184,23 +371,39 @@ public class LocationService extends Service {
         // do nothing. Otherwise, we make this service a foreground service.
         if (!mChangingConfiguration && mController.isRequestingLocationUpdates(this)) {
             Log.i(TAG, "Starting foreground service");
-            if (Build.VERSION.SDK_INT == Build.VERSION_CODES.O) {
-                ContextCompat.startForegroundService(
-                        this,
-                        new Intent(this, LocationService.class)
-                );
-//                mNotificationManager.startServiceInForeground(new Intent(this,
-//                        LocationService.class), NOTIFICATION_ID, getNotification());
-            } else {
-                startForeground(NOTIFICATION_ID, mController.getNotification());
-            }
+            enterForeground();
         }
         return true; // Ensures onRebind() is called when a client re-binds.
     }
 
     @Override
     public void onDestroy() {
+        mController.getRequestMultiplexer().setListener(null);
         mServiceHandler.removeCallbacksAndMessages(null);
+        // Stop the provider first; it would otherwise keep delivering to a dead looper. This
+        // also gives observers whatever was buffered in the background.
+        mServiceHandler.post(mUnregisterSource);
+        // After the flush above, so the cache gets the last fix it accepted.
+        if (mLastFixCache != null) {
+            mServiceHandler.post(mLastFixCache::close);
+        }
+        mServiceHandler.post(() -> {
+            if (mLocationSource instanceof Closeable) {
+                try {
+                    ((Closeable) mLocationSource).close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not close location source", e);
+                }
+            }
+            if (mPipeline.getSharedFixRing() != null) {
+                mPipeline.getSharedFixRing().close();
+            }
+            // Joins the writer and forces the segments to disk, so keep it off the main thread.
+            if (mPipeline.getTrackStore() != null) {
+                mPipeline.getTrackStore().close();
+            }
+        });
+        mHandlerThread.quitSafely();
     }
 
     /**
@@ -209,76 +412,193 @@ public class LocationService extends Service {
      */
     public void requestLocationUpdates() {
         Log.i(TAG, "Requesting location updates");
+        createNotificationChannel();
         mController.setRequestingLocationUpdates(this, true);
         startService(new Intent(getApplicationContext(), LocationService.class));
-        try {
-            mFusedLocationClient.requestLocationUpdates(mLocationRequest,
-                    mLocationCallback, Looper.myLooper());
-        } catch (SecurityException unlikely) {
-            mController.setRequestingLocationUpdates(this, false);
-            Log.e(TAG, "Lost location permission. Could not request updates. " + unlikely);
-        }
+        mServiceHandler.post(mRegisterSource);
     }
 
     /**
-     * Removes location updates. Note that in this sample we merely log the
-     * {@link SecurityException}.
+     * Removes location updates.
      */
     public void removeLocationUpdates() {
         Log.i(TAG, "Removing location updates");
-        try {
-            mFusedLocationClient.removeLocationUpdates(mLocationCallback);
-            mController.setRequestingLocationUpdates(this, false);
-            stopSelf();
-        } catch (SecurityException unlikely) {
-            mController.setRequestingLocationUpdates(this, true);
-            Log.e(TAG, "Lost location permission. Could not remove updates. " + unlikely);
-        }
+        mServiceHandler.post(mUnregisterSource);
+        mController.setRequestingLocationUpdates(this, false);
+        stopSelf();
     }
 
     private void requestLastLocation() {
         try {
-            mFusedLocationClient.getLastLocation()
-                    .addOnCompleteListener(task -> {
-                        if (task.isSuccessful() && task.getResult() != null) {
-                            onNewLocation(task.getResult());
-                        } else {
-                            Log.w(TAG, "Failed to get location.");
-                        }
-                    });
+            source().requestLastLocation(mPipeline);
         } catch (SecurityException unlikely) {
             Log.e(TAG, "Lost location permission." + unlikely);
         }
     }
 
+    /**
+     * Returns the current location. Until the first fix arrives this may be the one cached by
+     * an earlier run, see {@link #isCached(Location)}.
+     */
     public Location getLocation(){
-        return mLocation;
+        return mPipeline.getLocation();
+    }
+
+    /**
+     * Returns true if the fix was cached by an earlier run of the service rather than just
+     * computed. It may be hours old.
+     */
+    public static boolean isCached(Location location){
+        return location != null
+                && location.getExtras() != null
+                && location.getExtras().getBoolean(EXTRA_CACHED);
     }
 
-    private void onNewLocation(Location location) {
-        Log.i(TAG, "New location: " + location+" accuracy="+location.getAccuracy());
+    /**
+     * Returns the recorded track, or null if track recording is off.
+     */
+    public TrackStore getTrackStore(){
+        return mPipeline.getTrackStore();
+    }
 
-        mLocation = location;
+    /**
+     * Returns the most recent fixes, or null if the buffer is off.
+     */
+    public RecentFixBuffer getRecentFixes(){
+        return mPipeline.getRecentFixes();
+    }
 
-        // Notify anyone listening for broadcasts about the new location.
-        Intent intent = new Intent(mController.getConfiguration().getActionBroadcast());
-        intent.putExtra(EXTRA_LOCATION, location);
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
+    private final LocationPipeline.Host mPipelineHost = new LocationPipeline.Host() {
+        @Override
+        public void onMotionStateChanged(MotionState state, LocationRequestSpec spec) {
+            Log.i(TAG, "Motion state " + state + ", " + spec);
+            updateRequest();
+        }
 
-        // Update notification content if running as a foreground service.
-        if (serviceIsRunningInForeground(this)) {
-            mNotificationManager.notify(NOTIFICATION_ID, mController.getNotification());
+        @Override
+        public void onLocationsAccepted(List<Location> locations) {
+            if (mFirstFixPending) {
+                mFirstFixPending = false;
+                mController.getLocationMetrics().timeToFirstFixMs.record(
+                        (System.nanoTime() - mCreateNanos) / 1000000);
+            }
+            if (mLastFixCache != null) {
+                mLastFixCache.offer(locations.get(locations.size() - 1));
+            }
+            // Update notification content if running as a foreground service.
+            if (serviceIsRunningInForeground(LocationService.this)) {
+                updateNotification();
+            }
+        }
+    };
+
+    /**
+     * Refreshes the foreground notification from the latest fix, at most once per
+     * {@link LocationServiceConfiguration#getNotificationMinIntervalMs()}. Updates that arrive
+     * inside that window are coalesced into one that renders whatever fix is newest when it
+     * runs. A static notification never changes so it is never re-posted.
+     */
+    private void updateNotification() {
+        if (!mController.hasNotificationProducer()) {
+            return;
+        }
+        if (mNotificationUpdatePending) {
+            mController.getLocationMetrics().notificationsCoalesced.incrementAndGet();
+            return;
+        }
+        final long waitMs = mLastNotificationUptimeMs
+                + mController.getConfiguration().getNotificationMinIntervalMs()
+                - SystemClock.uptimeMillis();
+        if (waitMs <= 0) {
+            postNotification();
+        } else {
+            mNotificationUpdatePending = true;
+            mServiceHandler.postDelayed(mPostNotification, waitMs);
         }
     }
 
+    private void postNotification() {
+        if (!serviceIsRunningInForeground(this)) {
+            return;
+        }
+        mLastNotificationUptimeMs = SystemClock.uptimeMillis();
+        mNotificationManager.notify(NOTIFICATION_ID, mController.getNotification(mPipeline.getLocation()));
+    }
+
     /**
-     * Sets the location request parameters.
+     * Registers the pipeline with the source, using the merged request of the attached clients
+     * and, while observers without a request of their own are registered or no client has one,
+     * the configuration's. Re-registering the same
+     * observer replaces its request. Worker thread only.
      */
-    private void createLocationRequest() {
-        mLocationRequest = new LocationRequest();
-        mLocationRequest.setInterval(mController.getConfiguration().getIntervalMs());
-        mLocationRequest.setFastestInterval(mController.getConfiguration().getFastestIntervalMs());
-        mLocationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+    private void registerSource() {
+        final LocationRequestSpec spec =
+                mController.getRequestMultiplexer().resolve(mPipeline.getRequestSpec());
+        final long maxWaitTimeMs = getMaxWaitTimeMs();
+        source().requestLocationUpdates(spec, maxWaitTimeMs, mPipeline);
+        mRegisteredSpec = spec;
+        mRegisteredMaxWaitTimeMs = maxWaitTimeMs;
+        mController.getLocationMetrics().providerRegistrations.incrementAndGet();
+    }
+
+    /**
+     * The configured max wait time, raised to the background flush interval while headless so
+     * that the provider batches too. There is no point waking up for fixes that will only be
+     * buffered.
+     */
+    private long getMaxWaitTimeMs() {
+        final LocationServiceConfiguration configuration = mController.getConfiguration();
+        if (configuration.isBatchingInBackground()
+                && mForegroundState != ForegroundState.BACKGROUND) {
+            return Math.max(configuration.getMaxWaitTimeMs(),
+                    configuration.getBackgroundFlushIntervalMs());
+        }
+        return configuration.getMaxWaitTimeMs();
+    }
+
+    /**
+     * Re-registers with the source if it is registered and the request has changed, as clients
+     * come and go, adaptive sampling retunes it or the service enters or leaves the background.
+     * Callable from any thread; the source is only touched on the worker thread.
+     */
+    private void updateRequest() {
+        mServiceHandler.post(mUpdateRequest);
+    }
+
+    /**
+     * Returns the location source, creating it on first use. Creating the Fused Location
+     * Provider client costs a few milliseconds, which a service that is only bound to read
+     * {@link #getLocation()} never pays. Worker thread only.
+     */
+    private LocationSource source() {
+        if (mLocationSource == null) {
+            final LocationSource.Factory factory =
+                    mController.getConfiguration().getLocationSourceFactory();
+            mLocationSource = (factory != null ? factory : FusedLocationSource.FACTORY)
+                    .create(this, mServiceHandler.getLooper());
+        }
+        return mLocationSource;
+    }
+
+    /**
+     * Creates the channel the foreground notification is posted to. Android O requires one.
+     */
+    private void createNotificationChannel() {
+        if (mNotificationChannelCreated) {
+            return;
+        }
+        mNotificationChannelCreated = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Create the channel for the notification
+            NotificationChannel mChannel =
+                    new NotificationChannel(
+                            mController.getConfiguration().getChannel(),
+                            mController.getConfiguration().getAppName(),
+                            mController.getConfiguration().getNotificationImportance());
+
+            // Set the Notification Channel for the Notification Manager.
+            mNotificationManager.createNotificationChannel(mChannel);
+        }
     }
 
     /**
@@ -291,22 +611,53 @@ public class LocationService extends Service {
         }
     }
 
+    private void enterForeground() {
+        if (mForegroundState != ForegroundState.BACKGROUND) {
+            return;
+        }
+        mController.getLocationMetrics().foregroundTransitions.incrementAndGet();
+        createNotificationChannel();
+        if (Build.VERSION.SDK_INT == Build.VERSION_CODES.O) {
+            // startForeground follows in onStartCommand.
+            mForegroundState = ForegroundState.PROMOTING;
+            mStartForegroundDue = true;
+            ContextCompat.startForegroundService(
+                    this,
+                    new Intent(this, LocationService.class)
+            );
+        } else {
+            startForeground(NOTIFICATION_ID, mController.getNotification(mPipeline.getLocation()));
+            mForegroundState = ForegroundState.FOREGROUND;
+        }
+        if (mController.getConfiguration().isBatchingInBackground()) {
+            mServiceHandler.post(() -> mPipeline.setHeadless(true));
+            mServiceHandler.postDelayed(mBackgroundFlush,
+                    mController.getConfiguration().getBackgroundFlushIntervalMs());
+            updateRequest();
+        }
+    }
+
+    private void exitForeground() {
+        if (mForegroundState == ForegroundState.BACKGROUND) {
+            return;
+        }
+        stopForeground(true);
+        mForegroundState = ForegroundState.BACKGROUND;
+        mController.getLocationMetrics().foregroundTransitions.incrementAndGet();
+        if (mController.getConfiguration().isBatchingInBackground()) {
+            // A client is back, so it gets the buffered fixes now.
+            mServiceHandler.removeCallbacks(mBackgroundFlush);
+            mServiceHandler.post(() -> mPipeline.setHeadless(false));
+            updateRequest();
+        }
+    }
+
     /**
      * Returns true if this is a foreground service.
      *
-     * @param context The {@link Context}.
+     * @param context The {@link Context}. Unused, the state is tracked by the service itself.
      */
     public boolean serviceIsRunningInForeground(Context context) {
-        ActivityManager manager = (ActivityManager) context.getSystemService(
-                Context.ACTIVITY_SERVICE);
-        for (ActivityManager.RunningServiceInfo service : manager.getRunningServices(
-                Integer.MAX_VALUE)) {
-            if (getClass().getName().equals(service.service.getClassName())) {
-                if (service.foreground) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return mForegroundState == ForegroundState.FOREGROUND;
     }
 }
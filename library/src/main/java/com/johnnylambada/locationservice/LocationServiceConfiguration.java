@@ -2,6 +2,10 @@ package com.johnnylambada.locationservice;
 
 import android.app.NotificationManager;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class LocationServiceConfiguration {
     /**
      * The name of the channel for notifications.
@@ -11,19 +15,88 @@ public class LocationServiceConfiguration {
     private final String packageName;
     private final int notificationImportance;
     private final int intervalMs;
+    private final int maxWaitTimeMs;
+    private final int notificationMinIntervalMs;
+    private final AdaptiveSamplingConfiguration adaptiveSampling;
+    private final boolean recordTrack;
+    private final int trackRecordsPerSegment;
+    private final int trackMaxSegments;
+    private final int recentFixCapacity;
+    private final float simplificationToleranceM;
+    private final int simplificationMaxPoints;
+    private final long simplificationMaxLatencyMs;
+    private final LocationStream trackStream;
+    private final List<LocationProcessor> processors;
+    private final boolean smoothing;
+    private final float smoothingAccelerationMps2;
+    private final boolean tripSegmentation;
+    private final float stayRadiusM;
+    private final long stayMinDurationMs;
+    private final boolean shareFixes;
+    private final int sharedFixCapacity;
+    private final LocationSource.Factory locationSource;
+    private final boolean cacheLastFix;
+    private final int backgroundFlushIntervalMs;
+    private final int backgroundBufferSize;
 
     private LocationServiceConfiguration(
             String appName,
             String channel,
             String packageName,
             int notificationImportance,
-            int intervalMs
+            int intervalMs,
+            int maxWaitTimeMs,
+            int notificationMinIntervalMs,
+            AdaptiveSamplingConfiguration adaptiveSampling,
+            boolean recordTrack,
+            int trackRecordsPerSegment,
+            int trackMaxSegments,
+            int recentFixCapacity,
+            float simplificationToleranceM,
+            int simplificationMaxPoints,
+            long simplificationMaxLatencyMs,
+            LocationStream trackStream,
+            List<LocationProcessor> processors,
+            boolean smoothing,
+            float smoothingAccelerationMps2,
+            boolean tripSegmentation,
+            float stayRadiusM,
+            long stayMinDurationMs,
+            boolean shareFixes,
+            int sharedFixCapacity,
+            LocationSource.Factory locationSource,
+            boolean cacheLastFix,
+            int backgroundFlushIntervalMs,
+            int backgroundBufferSize
     ){
         this.appName = appName;
         this.channel = channel;
         this.packageName = packageName;
         this.notificationImportance = notificationImportance;
         this.intervalMs = intervalMs;
+        this.maxWaitTimeMs = maxWaitTimeMs;
+        this.notificationMinIntervalMs = notificationMinIntervalMs;
+        this.adaptiveSampling = adaptiveSampling;
+        this.recordTrack = recordTrack;
+        this.trackRecordsPerSegment = trackRecordsPerSegment;
+        this.trackMaxSegments = trackMaxSegments;
+        this.recentFixCapacity = recentFixCapacity;
+        this.simplificationToleranceM = simplificationToleranceM;
+        this.simplificationMaxPoints = simplificationMaxPoints;
+        this.simplificationMaxLatencyMs = simplificationMaxLatencyMs;
+        this.trackStream = trackStream;
+        this.processors = processors;
+        this.smoothing = smoothing;
+        this.smoothingAccelerationMps2 = smoothingAccelerationMps2;
+        this.tripSegmentation = tripSegmentation;
+        this.stayRadiusM = stayRadiusM;
+        this.stayMinDurationMs = stayMinDurationMs;
+        this.shareFixes = shareFixes;
+        this.sharedFixCapacity = sharedFixCapacity;
+        this.locationSource = locationSource;
+        this.cacheLastFix = cacheLastFix;
+        this.backgroundFlushIntervalMs = backgroundFlushIntervalMs;
+        this.backgroundBufferSize = backgroundBufferSize;
     }
 
     public String getAppName(){
@@ -38,6 +111,14 @@ public class LocationServiceConfiguration {
         return notificationImportance;
     }
 
+    /**
+     * The shortest time between two updates of the foreground notification. Fixes arriving
+     * sooner are coalesced so only the newest one is rendered.
+     */
+    public int getNotificationMinIntervalMs() {
+        return notificationMinIntervalMs;
+    }
+
     /**
      * The desired interval for location updates. Inexact. Updates may be more or less frequent.
      */
@@ -53,15 +134,226 @@ public class LocationServiceConfiguration {
         return intervalMs / 2;
     }
 
+    /**
+     * The longest time the provider may hold fixes before delivering them as a batch, or 0 if
+     * batching is disabled and every fix is delivered as soon as it is computed.
+     */
+    public int getMaxWaitTimeMs() {
+        return maxWaitTimeMs;
+    }
+
+    public boolean isBatching() {
+        return maxWaitTimeMs > 0;
+    }
+
+    /**
+     * The action fixes used to be broadcast under through LocalBroadcastManager.
+     *
+     * @deprecated fixes are no longer broadcast; register a {@link LocationObserver} with
+     * {@link LocationServiceController} instead. This will be removed in the next release.
+     */
+    @Deprecated
     public String getActionBroadcast(){
         return packageName+".broadcast";
     }
 
+    /**
+     * The request used when adaptive sampling is off, built from {@link #getIntervalMs()}.
+     */
+    public LocationRequestSpec getLocationRequestSpec() {
+        return new LocationRequestSpec.Builder()
+                .intervalMs(getIntervalMs())
+                .fastestIntervalMs(getFastestIntervalMs())
+                .priority(LocationRequestSpec.PRIORITY_HIGH_ACCURACY)
+                .build();
+    }
+
+    /**
+     * The adaptive sampling thresholds, or null if the request is fixed.
+     */
+    public AdaptiveSamplingConfiguration getAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    public boolean isAdaptiveSampling() {
+        return adaptiveSampling != null;
+    }
+
+    /**
+     * True if every fix is appended to the {@link TrackStore}.
+     */
+    public boolean isRecordingTrack() {
+        return recordTrack;
+    }
+
+    public int getTrackRecordsPerSegment() {
+        return trackRecordsPerSegment;
+    }
+
+    public int getTrackMaxSegments() {
+        return trackMaxSegments;
+    }
+
+    /**
+     * The number of fixes kept in the {@link RecentFixBuffer}, or 0 if it is off.
+     */
+    public int getRecentFixCapacity() {
+        return recentFixCapacity;
+    }
+
+    /**
+     * How far in meters the {@link LocationStream#SIMPLIFIED} track may stray from the raw one,
+     * or 0 if simplification is off.
+     */
+    public float getSimplificationToleranceM() {
+        return simplificationToleranceM;
+    }
+
+    public boolean isSimplifying() {
+        return simplificationToleranceM > 0;
+    }
+
+    /**
+     * The most fixes the simplifier holds before it keeps one regardless of the tolerance.
+     */
+    public int getSimplificationMaxPoints() {
+        return simplificationMaxPoints;
+    }
+
+    /**
+     * The longest time the simplifier waits before it keeps a fix regardless of the tolerance.
+     */
+    public long getSimplificationMaxLatencyMs() {
+        return simplificationMaxLatencyMs;
+    }
+
+    /**
+     * The stream recorded in the {@link TrackStore}.
+     */
+    public LocationStream getTrackStream() {
+        return trackStream;
+    }
+
+    /**
+     * The processors every fix runs through before it is recorded or dispatched, in order.
+     */
+    public List<LocationProcessor> getProcessors() {
+        return processors;
+    }
+
+    /**
+     * True if the {@link LocationStream#SMOOTHED} stream is produced.
+     */
+    public boolean isSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * The standard deviation of the acceleration the smoothing filter allows for.
+     */
+    public float getSmoothingAccelerationMps2() {
+        return smoothingAccelerationMps2;
+    }
+
+    /**
+     * True if accepted fixes are split into trips and stays for the {@link TripObserver}s.
+     */
+    public boolean isSegmentingTrips() {
+        return tripSegmentation;
+    }
+
+    /**
+     * How far in meters fixes may spread and still count as one stay.
+     */
+    public float getStayRadiusM() {
+        return stayRadiusM;
+    }
+
+    /**
+     * How long fixes must dwell within the stay radius to count as a stay.
+     */
+    public long getStayMinDurationMs() {
+        return stayMinDurationMs;
+    }
+
+    /**
+     * True if accepted fixes are published for {@link SharedFixReader}s in other processes.
+     */
+    public boolean isSharingFixes() {
+        return shareFixes;
+    }
+
+    /**
+     * The number of fixes the shared ring holds before it overwrites the oldest.
+     */
+    public int getSharedFixCapacity() {
+        return sharedFixCapacity;
+    }
+
+    /**
+     * Creates the source the service gets its fixes from, or null for the Fused Location
+     * Provider.
+     */
+    public LocationSource.Factory getLocationSourceFactory() {
+        return locationSource;
+    }
+
+    /**
+     * True if the last accepted fix is kept on disk and shown on the next start until a new
+     * fix arrives.
+     */
+    public boolean isCachingLastFix() {
+        return cacheLastFix;
+    }
+
+    /**
+     * How long fixes are buffered while the service runs in the foreground with no client
+     * bound, or 0 if they are delivered as they arrive.
+     */
+    public int getBackgroundFlushIntervalMs() {
+        return backgroundFlushIntervalMs;
+    }
+
+    public boolean isBatchingInBackground() {
+        return backgroundFlushIntervalMs > 0;
+    }
+
+    /**
+     * The most fixes buffered in the background before they are delivered early.
+     */
+    public int getBackgroundBufferSize() {
+        return backgroundBufferSize;
+    }
+
     public static class Builder {
         private String appName;
         private String channel;
         private String packageName;
         private int intervalMs = 10000; // 10 seconds
+        private int maxWaitTimeMs = 0;
+        private int batchSize = 0;
+        private int notificationMinIntervalMs = 5000; // 5 seconds
+        private AdaptiveSamplingConfiguration adaptiveSampling;
+        private boolean recordTrack = false;
+        private int trackRecordsPerSegment = 65536; // ~18 hours at 1 Hz
+        private int trackMaxSegments = 64;
+        private int recentFixCapacity = 3600; // an hour at 1 Hz
+        private float simplificationToleranceM = 0;
+        private int simplificationMaxPoints = 64;
+        private long simplificationMaxLatencyMs = 300000; // 5 minutes
+        private LocationStream trackStream = LocationStream.RAW;
+        private final List<LocationProcessor> processors = new ArrayList<>();
+        private boolean smoothing = false;
+        private float smoothingAccelerationMps2 = 1.5f;
+        private boolean tripSegmentation = false;
+        private float stayRadiusM = 100;
+        private long stayMinDurationMs = 300000; // 5 minutes
+        private boolean shareFixes = false;
+        private int sharedFixCapacity = 4096;
+        private LocationSource.Factory locationSource;
+        private boolean cacheLastFix = false;
+        private int backgroundFlushIntervalMs = 0;
+        private int backgroundBufferSize = 256;
         private int notificationImportance = -1000;//NotificationManager.IMPORTANCE_UNSPECIFIED;;
 
         public Builder appName(String appName){
@@ -84,6 +376,15 @@ public class LocationServiceConfiguration {
             return this;
         }
 
+        /**
+         * The shortest time between two updates of the foreground notification made by a
+         * {@link NotificationProducer}.
+         */
+        public Builder notificationMinIntervalMs(int notificationMinIntervalMs){
+            this.notificationMinIntervalMs = notificationMinIntervalMs;
+            return this;
+        }
+
         /**
          * The desired interval for location updates. Inexact. Updates may be more or less frequent.
          */
@@ -92,6 +393,227 @@ public class LocationServiceConfiguration {
             return this;
         }
 
+        /**
+         * Lets the provider hold fixes for up to this long and deliver them together. Batched
+         * fixes are all delivered, in order, to {@link BatchLocationObserver}s and
+         * {@link LocationObserver}s. Overrides {@link #batchSize(int)}.
+         */
+        public Builder maxWaitTimeMs(int maxWaitTimeMs){
+            this.maxWaitTimeMs = maxWaitTimeMs;
+            return this;
+        }
+
+        /**
+         * Lets the provider collect roughly this many fixes before delivering them together. This
+         * is a shorthand for a max wait time of {@code batchSize} intervals.
+         */
+        public Builder batchSize(int batchSize){
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Lets the service retune its location request as the device stops, walks or drives,
+         * instead of always sampling at {@link #intervalMs(int)} with high accuracy. The provider
+         * is only re-registered when the inferred {@link MotionState} changes.
+         */
+        public Builder adaptiveSampling(AdaptiveSamplingConfiguration adaptiveSampling){
+            this.adaptiveSampling = adaptiveSampling;
+            return this;
+        }
+
+        /**
+         * Records every fix in a {@link TrackStore}, see
+         * {@link LocationServiceController#getTrackStore}.
+         */
+        public Builder recordTrack(boolean recordTrack){
+            this.recordTrack = recordTrack;
+            return this;
+        }
+
+        /**
+         * The number of fixes per track segment file. Each fix takes 48 bytes.
+         */
+        public Builder trackRecordsPerSegment(int trackRecordsPerSegment){
+            this.trackRecordsPerSegment = trackRecordsPerSegment;
+            return this;
+        }
+
+        /**
+         * The number of track segment files kept. The oldest is deleted when a new one is started.
+         */
+        public Builder trackMaxSegments(int trackMaxSegments){
+            this.trackMaxSegments = trackMaxSegments;
+            return this;
+        }
+
+        /**
+         * The number of recent fixes kept in memory, see
+         * {@link LocationServiceController#getRecentFixes}. 0 turns the buffer off.
+         */
+        public Builder recentFixCapacity(int recentFixCapacity){
+            this.recentFixCapacity = recentFixCapacity;
+            return this;
+        }
+
+        /**
+         * Turns on the {@link LocationStream#SIMPLIFIED} stream, which leaves out fixes that lie
+         * within this many meters of the line through their neighbors.
+         */
+        public Builder simplificationToleranceM(float simplificationToleranceM){
+            this.simplificationToleranceM = simplificationToleranceM;
+            return this;
+        }
+
+        /**
+         * Bounds how many fixes the simplifier holds, and so its memory and delay.
+         */
+        public Builder simplificationMaxPoints(int simplificationMaxPoints){
+            this.simplificationMaxPoints = simplificationMaxPoints;
+            return this;
+        }
+
+        /**
+         * Bounds how long the simplifier may hold back the newest kept fix.
+         */
+        public Builder simplificationMaxLatencyMs(long simplificationMaxLatencyMs){
+            this.simplificationMaxLatencyMs = simplificationMaxLatencyMs;
+            return this;
+        }
+
+        /**
+         * Which stream {@link #recordTrack(boolean)} records. Recording the
+         * {@link LocationStream#SIMPLIFIED} stream requires a simplification tolerance.
+         */
+        public Builder trackStream(LocationStream trackStream){
+            this.trackStream = trackStream;
+            return this;
+        }
+
+        /**
+         * Appends a processor to the chain every fix runs through before it is recorded, shown in
+         * the notification or dispatched. Fixes a processor rejects are dropped and counted, see
+         * {@link LocationServiceController#getProcessorDropCounts()}. {@link LocationProcessors}
+         * has gates for accuracy, displacement, time between fixes and fix age.
+         */
+        public Builder addProcessor(LocationProcessor processor){
+            if (processor==null){
+                throw new IllegalArgumentException("processor can't be null");
+            }
+            this.processors.add(processor);
+            return this;
+        }
+
+        /**
+         * Runs a constant-velocity Kalman filter over accepted fixes and delivers its estimates
+         * on the {@link LocationStream#SMOOTHED} stream. The raw fixes are still delivered on
+         * {@link LocationStream#RAW}.
+         */
+        public Builder smoothing(boolean smoothing){
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        /**
+         * How sharply the smoothed track may change speed or direction. Higher values follow
+         * turns faster but smooth less. Walking is well served by about 1, driving by about 3.
+         */
+        public Builder smoothingAccelerationMps2(float smoothingAccelerationMps2){
+            this.smoothingAccelerationMps2 = smoothingAccelerationMps2;
+            return this;
+        }
+
+        /**
+         * Splits accepted fixes into stays and the trips between them, reported to the observers
+         * added with {@link LocationServiceController#addTripObserver}.
+         */
+        public Builder tripSegmentation(boolean tripSegmentation){
+            this.tripSegmentation = tripSegmentation;
+            return this;
+        }
+
+        /**
+         * How far in meters fixes may spread and still count as one stay. It should comfortably
+         * exceed the fixes' accuracy, or jitter will break stays apart.
+         */
+        public Builder stayRadiusM(float stayRadiusM){
+            this.stayRadiusM = stayRadiusM;
+            return this;
+        }
+
+        /**
+         * How long fixes must dwell within the stay radius to count as a stay.
+         */
+        public Builder stayMinDurationMs(long stayMinDurationMs){
+            this.stayMinDurationMs = stayMinDurationMs;
+            return this;
+        }
+
+        /**
+         * Publishes accepted fixes to a memory-mapped ring that other processes of the app read
+         * with {@link SharedFixReader}, so they need no location subscription of their own.
+         */
+        public Builder shareFixes(boolean shareFixes){
+            this.shareFixes = shareFixes;
+            return this;
+        }
+
+        /**
+         * The number of fixes the shared ring holds. Each takes 56 bytes. A reader that falls
+         * further behind loses the oldest.
+         */
+        public Builder sharedFixCapacity(int sharedFixCapacity){
+            this.sharedFixCapacity = sharedFixCapacity;
+            return this;
+        }
+
+        /**
+         * Where the service gets its fixes from, the Fused Location Provider by default. A
+         * {@link ReplayLocationSource#factory} plays back a recorded track instead.
+         */
+        public Builder locationSource(LocationSource.Factory locationSource){
+            if (locationSource==null){
+                throw new IllegalArgumentException("locationSource can't be null");
+            }
+            this.locationSource = locationSource;
+            return this;
+        }
+
+        /**
+         * Keeps the last accepted fix on disk so that a newly started service has a location
+         * right away. If the configured stateless gates, {@link LocationProcessors#maxAccuracyM(float)}
+         * and {@link LocationProcessors#maxAgeMs(long)}, accept it, the cached fix is delivered to
+         * {@link LocationStream#RAW} observers and flagged, see
+         * {@link LocationService#isCached(android.location.Location)}, until the first new fix
+         * replaces it. Add {@link LocationProcessors#maxAgeMs(long)} to bound how old it may be.
+         * Off by default, since observers must be ready for a fix that may be hours old.
+         */
+        public Builder cacheLastFix(boolean cacheLastFix){
+            this.cacheLastFix = cacheLastFix;
+            return this;
+        }
+
+        /**
+         * Buffers fixes while the service runs in the foreground with no client bound, and
+         * delivers them to the observers in one batch this often, when
+         * {@link #backgroundBufferSize(int)} fixes have piled up, or as soon as a client binds.
+         * The notification is refreshed when a batch is delivered, and the provider is asked to
+         * batch as well, so the device wakes up about once per interval. Fixes are still
+         * recorded, shared and measured as they arrive.
+         */
+        public Builder backgroundFlushIntervalMs(int backgroundFlushIntervalMs){
+            this.backgroundFlushIntervalMs = backgroundFlushIntervalMs;
+            return this;
+        }
+
+        /**
+         * The most fixes buffered in the background before they are delivered early.
+         */
+        public Builder backgroundBufferSize(int backgroundBufferSize){
+            this.backgroundBufferSize = backgroundBufferSize;
+            return this;
+        }
+
         public LocationServiceConfiguration build(){
             if (appName==null){
                 throw new IllegalArgumentException("appName can't be null");
@@ -99,6 +621,51 @@ public class LocationServiceConfiguration {
             if (packageName==null){
                 throw new IllegalArgumentException("packageName can't be null");
             }
+            if (maxWaitTimeMs<0){
+                throw new IllegalArgumentException("maxWaitTimeMs can't be negative");
+            }
+            if (notificationMinIntervalMs<0){
+                throw new IllegalArgumentException("notificationMinIntervalMs can't be negative");
+            }
+            if (trackRecordsPerSegment<=0 || trackMaxSegments<=0){
+                throw new IllegalArgumentException("trackRecordsPerSegment and trackMaxSegments must be positive");
+            }
+            if (recentFixCapacity<0){
+                throw new IllegalArgumentException("recentFixCapacity can't be negative");
+            }
+            if (simplificationToleranceM<0){
+                throw new IllegalArgumentException("simplificationToleranceM can't be negative");
+            }
+            if (simplificationMaxPoints<2 || simplificationMaxLatencyMs<=0){
+                throw new IllegalArgumentException("simplificationMaxPoints must be at least 2 and simplificationMaxLatencyMs positive");
+            }
+            if (trackStream==null){
+                throw new IllegalArgumentException("trackStream can't be null");
+            }
+            if (trackStream==LocationStream.SIMPLIFIED && simplificationToleranceM==0){
+                throw new IllegalArgumentException("recording the simplified stream requires simplificationToleranceM");
+            }
+            if (trackStream==LocationStream.SMOOTHED && !smoothing){
+                throw new IllegalArgumentException("recording the smoothed stream requires smoothing");
+            }
+            if (smoothingAccelerationMps2<=0){
+                throw new IllegalArgumentException("smoothingAccelerationMps2 must be positive");
+            }
+            if (stayRadiusM<=0 || stayMinDurationMs<=0){
+                throw new IllegalArgumentException("stayRadiusM and stayMinDurationMs must be positive");
+            }
+            if (sharedFixCapacity<=0){
+                throw new IllegalArgumentException("sharedFixCapacity must be positive");
+            }
+            if (backgroundFlushIntervalMs<0){
+                throw new IllegalArgumentException("backgroundFlushIntervalMs can't be negative");
+            }
+            if (backgroundBufferSize<=0){
+                throw new IllegalArgumentException("backgroundBufferSize must be positive");
+            }
+            if (batchSize<0){
+                throw new IllegalArgumentException("batchSize can't be negative");
+            }
             return new LocationServiceConfiguration(
                     appName,
                     channel==null
@@ -108,7 +675,32 @@ public class LocationServiceConfiguration {
                     notificationImportance==-1000
                         ? 3//NotificationManager.IMPORTANCE_DEFAULT
                         : notificationImportance,
-                    intervalMs
+                    intervalMs,
+                    maxWaitTimeMs>0 || batchSize<=1
+                        ? maxWaitTimeMs
+                        : intervalMs * batchSize,
+                    notificationMinIntervalMs,
+                    adaptiveSampling,
+                    recordTrack,
+                    trackRecordsPerSegment,
+                    trackMaxSegments,
+                    recentFixCapacity,
+                    simplificationToleranceM,
+                    simplificationMaxPoints,
+                    simplificationMaxLatencyMs,
+                    trackStream,
+                    Collections.unmodifiableList(new ArrayList<>(processors)),
+                    smoothing,
+                    smoothingAccelerationMps2,
+                    tripSegmentation,
+                    stayRadiusM,
+                    stayMinDurationMs,
+                    shareFixes,
+                    sharedFixCapacity,
+                    locationSource,
+                    cacheLastFix,
+                    backgroundFlushIntervalMs,
+                    backgroundBufferSize
             );
         }
     }
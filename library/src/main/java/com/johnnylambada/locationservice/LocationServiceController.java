@@ -4,22 +4,21 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.arch.lifecycle.DefaultLifecycleObserver;
 import android.arch.lifecycle.LifecycleOwner;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
-import android.content.SharedPreferences;
 import android.location.Location;
 import android.os.IBinder;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static com.johnnylambada.locationservice.LocationService.EXTRA_STARTED_FROM_NOTIFICATION;
 
@@ -28,10 +27,18 @@ public enum LocationServiceController {
 
     public static final String KEY_REQUESTING_LOCATION_UPDATES = "requesting_locaction_updates";
     private final LifecycleObserver lifecycleObserver = new LifecycleObserver();
-    private final Map<LifecycleOwner,Client> clients = new HashMap<>();
+    private final Map<LifecycleOwner,Client> clients = new ConcurrentHashMap<>();
+    private final LocationMetrics metrics = new LocationMetrics();
+    private final LocationDispatcher dispatcher = new LocationDispatcher(metrics);
+    private final TripDispatcher tripDispatcher = new TripDispatcher();
+    private final Odometer odometer = new Odometer();
+    private final RequestMultiplexer requests = new RequestMultiplexer(dispatcher);
+    private final SessionState sessionState = new SessionState(KEY_REQUESTING_LOCATION_UPDATES);
     private Notification notification;
+    private NotificationProducer notificationProducer;
 
     private LocationServiceConfiguration configuration;
+    private LocationProcessorChain processorChain;
 
     // region configuration
     public void configure(LocationServiceConfiguration configuration){
@@ -42,6 +49,7 @@ public enum LocationServiceController {
             throw new IllegalStateException("LocationServiceController can only be configured once");
         }
         this.configuration = configuration;
+        this.processorChain = new LocationProcessorChain(configuration.getProcessors());
     }
 
     public boolean isConfigured(){
@@ -51,6 +59,60 @@ public enum LocationServiceController {
     public LocationServiceConfiguration getConfiguration() {
         return configuration;
     }
+    LocationDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    TripDispatcher getTripDispatcher() {
+        return tripDispatcher;
+    }
+
+    Odometer getOdometer() {
+        return odometer;
+    }
+
+    RequestMultiplexer getRequestMultiplexer() {
+        return requests;
+    }
+
+    LocationProcessorChain getProcessorChain() {
+        return processorChain;
+    }
+
+    /**
+     * Returns how many fixes each configured {@link LocationProcessor} has dropped, in chain
+     * order.
+     */
+    public Map<LocationProcessor, Long> getProcessorDropCounts() {
+        return processorChain.getDropCounts();
+    }
+
+    LocationMetrics getLocationMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns a snapshot of the hot path metrics: fix age, observer latency and dispatch time
+     * histograms, and the service's counters. Cheap enough to poll.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot(dispatcher.snapshotDispatchTimes());
+    }
+
+    /**
+     * Returns the distance, moving time, speeds and elevation gain since the last
+     * {@link #resetMotionStatistics()}, kept up to date as fixes arrive.
+     */
+    public MotionStatistics getMotionStatistics() {
+        return odometer.snapshot();
+    }
+
+    /**
+     * Starts the motion statistics over, for example at the start of a session.
+     */
+    public void resetMotionStatistics() {
+        odometer.reset();
+    }
     // endregion
 
     // region notification
@@ -67,6 +129,31 @@ public enum LocationServiceController {
         return this;
     }
 
+    /**
+     * Sets a producer that renders the foreground notification from the latest fix. While it is
+     * set the notification is refreshed as fixes arrive, no more often than
+     * {@link LocationServiceConfiguration#getNotificationMinIntervalMs()}. Without one the
+     * notification given to {@link #setNotification(Notification)} is shown unchanged.
+     */
+    public LocationServiceController setNotificationProducer(NotificationProducer notificationProducer) {
+        this.notificationProducer = notificationProducer;
+        return this;
+    }
+
+    boolean hasNotificationProducer() {
+        return notificationProducer!=null;
+    }
+
+    /**
+     * Returns the notification for the given fix, from the producer if one is set.
+     */
+    @NonNull Notification getNotification(Location location) {
+        if (notificationProducer!=null){
+            return notificationProducer.produce(location);
+        }
+        return getNotification();
+    }
+
     // endregion
 
     // region clients
@@ -76,10 +163,63 @@ public enum LocationServiceController {
             LocationObserver locationObserver,
             RequestingLocationUpdatesObserver requestingLocationUpdatesObserver
     ){
+        return attach(
+                lifecycleOwner,
+                context,
+                locationObserver,
+                null,
+                requestingLocationUpdatesObserver
+        );
+    }
+
+    /**
+     * Attaches a client that wants batched fixes. Either location observer may be null, but not
+     * both. The batch observer gets every fix of a provider batch in a single call, see
+     * {@link LocationServiceConfiguration.Builder#maxWaitTimeMs(int)}.
+     */
+    public LocationServiceController attach(
+            LifecycleOwner lifecycleOwner,
+            Context context,
+            LocationObserver locationObserver,
+            BatchLocationObserver batchLocationObserver,
+            RequestingLocationUpdatesObserver requestingLocationUpdatesObserver
+    ){
+        return attach(
+                lifecycleOwner,
+                context,
+                null,
+                locationObserver,
+                batchLocationObserver,
+                requestingLocationUpdatesObserver
+        );
+    }
+
+    /**
+     * Attaches a client with a request of its own. While the client is started, the provider
+     * runs at least as often and as accurately as the spec asks, merged with the other started
+     * clients' specs. The configuration's request is merged in too while observers without a
+     * spec are registered, and used alone while no client with a spec is started. The client's
+     * observers get fixes no more often than the spec's interval and no closer together
+     * than its smallest displacement, however fast the provider runs for others.
+     * A null spec attaches a client that takes every fix, as the other overloads do.
+     */
+    public LocationServiceController attach(
+            LifecycleOwner lifecycleOwner,
+            Context context,
+            LocationRequestSpec spec,
+            LocationObserver locationObserver,
+            BatchLocationObserver batchLocationObserver,
+            RequestingLocationUpdatesObserver requestingLocationUpdatesObserver
+    ){
+        if (locationObserver==null && batchLocationObserver==null){
+            throw new IllegalArgumentException("locationObserver and batchLocationObserver can't both be null");
+        }
         final Client client = new Client(
                 lifecycleOwner,
                 context,
+                spec,
                 locationObserver,
+                batchLocationObserver,
                 requestingLocationUpdatesObserver
         );
         clients.put(lifecycleOwner, client);
@@ -87,26 +227,202 @@ public enum LocationServiceController {
         return this;
     }
 
-    public void requestLocationUpdates(LifecycleOwner lifecycleOwner){
-        clients.get(lifecycleOwner).mService.requestLocationUpdates();
+    /**
+     * Adds an observer that isn't tied to a lifecycle, for example a persistence or geofencing
+     * component. It is delivered on the given executor, see {@link LocationExecutors}, until it
+     * is removed. Observers passed to {@link #attach} are delivered on the main thread.
+     */
+    public LocationServiceController addLocationObserver(LocationObserver observer, Executor executor){
+        return addLocationObserver(observer, executor, LocationStream.RAW);
+    }
+
+    /**
+     * Like {@link #addLocationObserver(LocationObserver, Executor)}, observing the given stream.
+     */
+    public LocationServiceController addLocationObserver(LocationObserver observer, Executor executor, LocationStream stream){
+        dispatcher.addObserver(observer, executor, stream);
+        return this;
+    }
+
+    public LocationServiceController removeLocationObserver(LocationObserver observer){
+        dispatcher.removeObserver(observer);
+        return this;
     }
 
-    public void removeLocationUpdates(LifecycleOwner lifecycleOwner){
-        clients.get(lifecycleOwner).mService.removeLocationUpdates();
+    /**
+     * Like {@link #addLocationObserver(LocationObserver, Executor)} for a
+     * {@link BatchLocationObserver}.
+     */
+    public LocationServiceController addBatchLocationObserver(BatchLocationObserver observer, Executor executor){
+        return addBatchLocationObserver(observer, executor, LocationStream.RAW);
     }
 
+    public LocationServiceController addBatchLocationObserver(BatchLocationObserver observer, Executor executor, LocationStream stream){
+        dispatcher.addBatchObserver(observer, executor, stream);
+        return this;
+    }
+
+    public LocationServiceController removeBatchLocationObserver(BatchLocationObserver observer){
+        dispatcher.removeBatchObserver(observer);
+        return this;
+    }
+
+    /**
+     * Adds an observer of trips and stays, delivered on the given executor. Requires
+     * {@link LocationServiceConfiguration.Builder#tripSegmentation(boolean)}.
+     */
+    public LocationServiceController addTripObserver(TripObserver observer, Executor executor){
+        tripDispatcher.addObserver(observer, executor);
+        return this;
+    }
+
+    public LocationServiceController removeTripObserver(TripObserver observer){
+        tripDispatcher.removeObserver(observer);
+        return this;
+    }
+
+    /**
+     * Subscribes to the raw stream with its own queue, see
+     * {@link #subscribe(BatchLocationObserver, Executor, LocationStream, Backpressure)}.
+     */
+    public LocationSubscription subscribe(BatchLocationObserver observer, Executor executor, Backpressure backpressure){
+        return subscribe(observer, executor, LocationStream.RAW, backpressure);
+    }
+
+    /**
+     * Subscribes an observer that may be slow, such as one writing to disk or the network. Fixes
+     * are queued for it according to {@code backpressure} and delivered on {@code executor}, so
+     * it never delays the provider or other observers. Delivery continues until the returned
+     * subscription is cancelled.
+     */
+    public LocationSubscription subscribe(BatchLocationObserver observer, Executor executor, LocationStream stream, Backpressure backpressure){
+        final LocationSubscription subscription = new LocationSubscription(observer, executor, backpressure, dispatcher);
+        subscription.subscribe(stream);
+        return subscription;
+    }
+
+    /**
+     * Requests location updates. If the client's service isn't bound yet, the request is queued
+     * and replayed, in order with the client's other commands, once it is. The returned future
+     * completes when the request has been made.
+     */
+    public Future<Void> requestLocationUpdates(LifecycleOwner lifecycleOwner){
+        return client(lifecycleOwner).submit(service -> {
+            service.requestLocationUpdates();
+            return null;
+        });
+    }
+
+    /**
+     * Removes location updates, queued like {@link #requestLocationUpdates(LifecycleOwner)}.
+     */
+    public Future<Void> removeLocationUpdates(LifecycleOwner lifecycleOwner){
+        return client(lifecycleOwner).submit(service -> {
+            service.removeLocationUpdates();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the latest location, or null if there is none yet or the service isn't bound yet.
+     * Use {@link #fetchLocation(LifecycleOwner)} to wait for the binding.
+     */
     public Location getLocation(LifecycleOwner lifecycleOwner){
-        return clients.get(lifecycleOwner).mService.getLocation();
+        final LocationService service = client(lifecycleOwner).mService;
+        return service!=null ? service.getLocation() : null;
+    }
+
+    /**
+     * Returns a future for the latest location, completed once the service is bound. Its value
+     * is null if the service has no location yet.
+     */
+    public Future<Location> fetchLocation(LifecycleOwner lifecycleOwner){
+        return client(lifecycleOwner).submit(LocationService::getLocation);
+    }
+
+    /**
+     * Returns the recorded track for sequential and time range reads, or null if
+     * {@link LocationServiceConfiguration#isRecordingTrack()} is off or the service isn't bound
+     * yet.
+     */
+    public TrackStore getTrackStore(LifecycleOwner lifecycleOwner){
+        final LocationService service = client(lifecycleOwner).mService;
+        return service!=null ? service.getTrackStore() : null;
+    }
+
+    /**
+     * Returns the in-memory window of recent fixes, or null if
+     * {@link LocationServiceConfiguration#getRecentFixCapacity()} is 0 or the service isn't
+     * bound yet.
+     */
+    public RecentFixBuffer getRecentFixes(LifecycleOwner lifecycleOwner){
+        final LocationService service = client(lifecycleOwner).mService;
+        return service!=null ? service.getRecentFixes() : null;
+    }
+
+    /**
+     * Returns the recorded position at the given time, interpolated between the fixes around it,
+     * or null if the time is outside the track or there is no track yet. See
+     * {@link TrackStore#positionAt(long)}.
+     */
+    public Location positionAt(LifecycleOwner lifecycleOwner, long timeMs){
+        final TrackStore track = getTrackStore(lifecycleOwner);
+        return track!=null ? track.positionAt(timeMs) : null;
+    }
+
+    /**
+     * Returns a cursor over the recorded fixes with {@code fromTimeMs <= time < toTimeMs}, or
+     * null if there is no track yet.
+     */
+    public TrackCursor between(LifecycleOwner lifecycleOwner, long fromTimeMs, long toTimeMs){
+        final TrackStore track = getTrackStore(lifecycleOwner);
+        return track!=null ? track.cursor(fromTimeMs, toTimeMs) : null;
+    }
+
+    /**
+     * Returns a cursor over the recorded fixes inside the bounding box, in time order, or null if
+     * there is no track yet. The box must not cross the antimeridian.
+     */
+    public TrackCursor inBox(LifecycleOwner lifecycleOwner, double south, double west, double north, double east){
+        final TrackStore track = getTrackStore(lifecycleOwner);
+        return track!=null ? track.cursor(south, west, north, east) : null;
+    }
+
+    private @NonNull Client client(LifecycleOwner lifecycleOwner){
+        final Client client = clients.get(lifecycleOwner);
+        if (client==null){
+            throw new IllegalStateException("lifecycleOwner must be attached first");
+        }
+        return client;
+    }
+
+    /**
+     * A controller call that needs the bound service.
+     */
+    private interface ServiceCommand<T> {
+        T run(LocationService service);
     }
 
     private class Client {
         private final LifecycleOwner lifecycleOwner;
         private final Context context;
+        private final LocationRequestSpec spec;
         private final LocationObserver locationObserver;
+        private final BatchLocationObserver batchLocationObserver;
         private final RequestingLocationUpdatesObserver requestingLocationUpdatesObserver;
 
+        // Delivers to the observers at the spec's rate, or null if the client has no spec.
+        private final DecimatingObserver decimatingObserver;
+
         // A reference to the service used to get location updates.
-        private LocationService mService = null;
+        private volatile LocationService mService = null;
+
+        // True from bindService until unbindService, whether or not the service is connected yet.
+        // Main thread only.
+        private boolean bound;
+
+        // Commands submitted while mService is null, oldest first. Guarded by this Client.
+        private final ArrayDeque<FutureTask<?>> mPendingCommands = new ArrayDeque<>();
 
         // Monitors the state of the connection to the service.
         private final ServiceConnection mServiceConnection = new ServiceConnection() {
@@ -114,7 +430,14 @@ public enum LocationServiceController {
             @Override
             public void onServiceConnected(ComponentName name, IBinder service) {
                 LocationService.LocalBinder binder = (LocationService.LocalBinder) service;
-                mService = binder.getService();
+                synchronized (Client.this) {
+                    mService = binder.getService();
+                    // Replay under the lock so commands submitted meanwhile stay in order.
+                    FutureTask<?> command;
+                    while ((command = mPendingCommands.poll()) != null) {
+                        command.run();
+                    }
+                }
             }
 
             @Override
@@ -123,33 +446,56 @@ public enum LocationServiceController {
             }
         };
 
-        private final BroadcastReceiver mLocationReceiver = new BroadcastReceiver() {
-            @Override public void onReceive(Context context, Intent intent) {
-                Location location = intent.getParcelableExtra(LocationService.EXTRA_LOCATION);
-                if (location != null) {
-                    locationObserver.onLocation(location);
-                }
-            }
-        };
-
-        private final SharedPreferences.OnSharedPreferenceChangeListener mPrefsChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
-            @Override
-            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-                if (key.equals(KEY_REQUESTING_LOCATION_UPDATES)) {
-                    requestingLocationUpdatesObserver.isRequestingLocationUpdates(isRequestingLocationUpdates(context));
-                }
-            }
-        };
-
         Client(LifecycleOwner lifecycleOwner,
                Context context,
+               LocationRequestSpec spec,
                LocationObserver locationObserver,
+               BatchLocationObserver batchLocationObserver,
                RequestingLocationUpdatesObserver requestingLocationUpdatesObserver
         ){
             this.lifecycleOwner = lifecycleOwner;
             this.context = context;
+            this.spec = spec;
             this.locationObserver = locationObserver;
+            this.batchLocationObserver = batchLocationObserver;
             this.requestingLocationUpdatesObserver = requestingLocationUpdatesObserver;
+            this.decimatingObserver = spec != null
+                    ? new DecimatingObserver(spec, locationObserver, batchLocationObserver, LocationExecutors.main())
+                    : null;
+        }
+
+        /**
+         * Runs the command now if the service is bound, otherwise queues it until it is.
+         */
+        <T> Future<T> submit(ServiceCommand<T> command){
+            final FutureTask<T> task = new FutureTask<>(() -> command.run(mService));
+            synchronized (this) {
+                if (mService==null) {
+                    mPendingCommands.add(task);
+                } else {
+                    task.run();
+                }
+            }
+            return task;
+        }
+
+        /**
+         * Forgets the service once the client has unbound from it and cancels the commands still
+         * waiting for it, so nothing runs against a service the client no longer holds.
+         */
+        synchronized void unbind(){
+            mService = null;
+            cancelPendingCommands();
+        }
+
+        /**
+         * Cancels the queued commands of a client that is going away.
+         */
+        synchronized void cancelPendingCommands(){
+            FutureTask<?> command;
+            while ((command = mPendingCommands.poll()) != null) {
+                command.cancel(false);
+            }
         }
     }
 
@@ -163,64 +509,93 @@ public enum LocationServiceController {
                     new Intent(client.context, LocationService.class),
                     client.mServiceConnection,
                     Context.BIND_AUTO_CREATE);
-            PreferenceManager.getDefaultSharedPreferences(client.context)
-                    .registerOnSharedPreferenceChangeListener(client.mPrefsChangeListener);
+            client.bound = true;
+            if (client.requestingLocationUpdatesObserver!=null) {
+                sessionState.addObserver(client.requestingLocationUpdatesObserver);
+            }
+            if (client.spec!=null) {
+                requests.put(owner, client.spec);
+            }
         }
 
         @Override public void onStop(@NonNull LifecycleOwner owner) {
             Log.i("LSC","onStop");
             final Client client = clients.get(owner);
-            if (client.mService!=null) {
-                // Unbind from the service. This signals to the service that this activity is no longer
-                // in the foreground, and the service can respond by promoting itself to a foreground
-                // service.
+            if (client.bound) {
+                // Unbind from the service, even if it hasn't connected yet. This signals to the
+                // service that this activity is no longer in the foreground, and the service can
+                // respond by promoting itself to a foreground service.
                 client.context.unbindService(client.mServiceConnection);
+                client.bound = false;
             }
-            PreferenceManager.getDefaultSharedPreferences(client.context)
-                    .unregisterOnSharedPreferenceChangeListener(client.mPrefsChangeListener);
+            client.unbind();
+            if (client.requestingLocationUpdatesObserver!=null) {
+                sessionState.removeObserver(client.requestingLocationUpdatesObserver);
+            }
+            requests.remove(owner);
         }
 
         @Override public void onResume(@NonNull LifecycleOwner owner) {
             Log.i("LSC","onResume");
             final Client client = clients.get(owner);
-            LocalBroadcastManager.getInstance(client.context)
-                    .registerReceiver(client.mLocationReceiver,
-                    new IntentFilter(getConfiguration().getActionBroadcast()));
+            if (client.decimatingObserver!=null) {
+                // Decimated on the worker so skipped fixes never reach the main thread.
+                dispatcher.addBatchObserver(client.decimatingObserver, LocationExecutors.worker(), LocationStream.RAW);
+                return;
+            }
+            if (client.locationObserver!=null) {
+                dispatcher.addObserver(client.locationObserver, LocationExecutors.main(), LocationStream.RAW);
+            }
+            if (client.batchLocationObserver!=null) {
+                dispatcher.addBatchObserver(client.batchLocationObserver, LocationExecutors.main(), LocationStream.RAW);
+            }
         }
 
         @Override public void onPause(@NonNull LifecycleOwner owner) {
             Log.i("LSC","onPause");
             final Client client = clients.get(owner);
-            LocalBroadcastManager.getInstance(client.context).unregisterReceiver(client.mLocationReceiver);
+            if (client.decimatingObserver!=null) {
+                dispatcher.removeBatchObserver(client.decimatingObserver);
+                return;
+            }
+            if (client.locationObserver!=null) {
+                dispatcher.removeObserver(client.locationObserver);
+            }
+            if (client.batchLocationObserver!=null) {
+                dispatcher.removeBatchObserver(client.batchLocationObserver);
+            }
         }
 
         @Override public void onDestroy(@NonNull LifecycleOwner owner) {
             Log.i("LSC","onDestroy");
-            clients.remove(owner);
+            final Client client = clients.remove(owner);
+            if (client!=null) {
+                client.cancelPendingCommands();
+            }
+            requests.remove(owner);
         }
     }
     // endregion
 
-    // region shared preference
+    // region session state
     /**
-     * Returns true if requesting location updates, otherwise returns false.
+     * Returns true if requesting location updates, otherwise returns false. The state is kept in
+     * memory; SharedPreferences are only read the first time, to restore it after a restart.
      *
      * @param context The {@link Context}.
      */
     public boolean isRequestingLocationUpdates(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context)
-                .getBoolean(KEY_REQUESTING_LOCATION_UPDATES, false);
+        return sessionState.isRequestingLocationUpdates(context);
     }
 
     /**
-     * Stores the location updates state in SharedPreferences.
+     * Sets the location updates state, notifies the attached
+     * {@link RequestingLocationUpdatesObserver}s on the main thread, and saves the state to
+     * SharedPreferences in the background.
      * @param requestingLocationUpdates The location updates state.
      */
     public void setRequestingLocationUpdates(Context context, boolean requestingLocationUpdates) {
-        PreferenceManager.getDefaultSharedPreferences(context)
-                .edit()
-                .putBoolean(KEY_REQUESTING_LOCATION_UPDATES, requestingLocationUpdates)
-                .apply();
+        sessionState.setRequestingLocationUpdates(context, requestingLocationUpdates);
     }
     // endregion
 
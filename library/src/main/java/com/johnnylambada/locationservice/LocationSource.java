@@ -0,0 +1,50 @@
+package com.johnnylambada.locationservice;
+
+import android.content.Context;
+import android.os.Looper;
+
+/**
+ * Where the service gets its fixes from. {@link FusedLocationSource} asks the Fused Location
+ * Provider; {@link ReplayLocationSource} plays back a recorded track, so the whole pipeline can
+ * be exercised without a device.
+ *
+ * The service creates its source and makes every call to it on its worker thread, so a source
+ * needs no locking of its own. Sources deliver to the observer on that thread too, or, for
+ * sources created without a looper, on whatever thread the source runs on.
+ */
+public interface LocationSource {
+
+    /**
+     * Starts delivering fixes to the observer, or replaces the request if it is already
+     * registered.
+     *
+     * @param maxWaitTimeMs how long the source may hold fixes to deliver them together, 0 for
+     *                      no batching
+     * @throws SecurityException if the location permission is missing
+     */
+    void requestLocationUpdates(LocationRequestSpec spec, long maxWaitTimeMs,
+                                BatchLocationObserver observer);
+
+    /**
+     * Stops delivering fixes to the observer.
+     */
+    void removeLocationUpdates(BatchLocationObserver observer);
+
+    /**
+     * Delivers the last known fix to the observer once, if there is one.
+     *
+     * @throws SecurityException if the location permission is missing
+     */
+    void requestLastLocation(BatchLocationObserver observer);
+
+    /**
+     * Creates the source when the service is created, see
+     * {@link LocationServiceConfiguration.Builder#locationSource(Factory)}.
+     */
+    interface Factory {
+        /**
+         * @param looper the service's worker thread, where fixes should be delivered
+         */
+        LocationSource create(Context context, Looper looper);
+    }
+}
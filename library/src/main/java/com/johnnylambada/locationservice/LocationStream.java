@@ -0,0 +1,23 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * The streams of fixes an observer can subscribe to.
+ */
+public enum LocationStream {
+    /**
+     * Every fix from the provider.
+     */
+    RAW,
+    /**
+     * Only the fixes needed to keep the track's shape within
+     * {@link LocationServiceConfiguration#getSimplificationToleranceM()}. Each fix is delivered
+     * once a later one shows it is a corner, so this stream lags the raw one by up to
+     * {@link LocationServiceConfiguration#getSimplificationMaxPoints()} fixes.
+     */
+    SIMPLIFIED,
+    /**
+     * Every fix, with position, speed, bearing and accuracy replaced by the estimate of a Kalman
+     * filter, see {@link LocationServiceConfiguration.Builder#smoothing(boolean)}.
+     */
+    SMOOTHED
+}
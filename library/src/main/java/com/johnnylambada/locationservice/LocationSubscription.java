@@ -0,0 +1,250 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscriber's own queue of fixes, created by
+ * {@link LocationServiceController#subscribe(BatchLocationObserver, Executor, LocationStream, Backpressure)}.
+ *
+ * The service's worker thread only enqueues into it, as the {@link Backpressure} strategy allows,
+ * and schedules a drain on the subscriber's executor if one isn't already scheduled. The drain
+ * hands the queued fixes to the subscriber outside the queue's lock, so however slow the
+ * subscriber is it never holds up the provider callback or other observers. The subscriber's
+ * executor must therefore not be {@link LocationExecutors#worker()}.
+ */
+public final class LocationSubscription {
+
+    /**
+     * Holds the Handler that times out partial batches so it is only created once it is used.
+     */
+    private static final class Timeouts {
+        private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+    }
+
+    private final BatchLocationObserver observer;
+    private final Executor executor;
+    private final Backpressure backpressure;
+    private final LocationDispatcher dispatcher;
+    private final BatchLocationObserver enqueuer = new BatchLocationObserver() {
+        @Override public void onLocations(List<Location> locations) {
+            enqueue(locations);
+        }
+
+        @Override public String toString() {
+            return LocationSubscription.this.toString();
+        }
+    };
+    private final Runnable drain = this::drain;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Guarded by this subscription.
+    private final ArrayDeque<Location> ready = new ArrayDeque<>();
+    private final ArrayDeque<List<Location>> readyBatches = new ArrayDeque<>();
+    private List<Location> collecting;
+    // Hands collecting over periodMs after it was started, or null if it isn't collecting.
+    private Runnable collectingTimeout;
+    private long lastSampleTimeMs = Long.MIN_VALUE;
+    private boolean cancelled;
+
+    LocationSubscription(BatchLocationObserver observer,
+                         Executor executor,
+                         Backpressure backpressure,
+                         LocationDispatcher dispatcher){
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        if (executor==null){
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        if (backpressure==null){
+            throw new IllegalArgumentException("backpressure can't be null");
+        }
+        this.observer = observer;
+        this.executor = executor;
+        this.backpressure = backpressure;
+        this.dispatcher = dispatcher;
+    }
+
+    void subscribe(LocationStream stream){
+        dispatcher.addBatchObserver(enqueuer, LocationExecutors.worker(), stream);
+    }
+
+    /**
+     * Stops delivery and discards anything still queued. A delivery already in progress
+     * finishes.
+     */
+    public void cancel(){
+        dispatcher.removeBatchObserver(enqueuer);
+        synchronized (this) {
+            cancelled = true;
+            ready.clear();
+            readyBatches.clear();
+            collecting = null;
+            cancelTimeout();
+        }
+    }
+
+    public synchronized boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Returns how many fixes the backpressure strategy has discarded so far.
+     */
+    public long getDroppedCount(){
+        return dropped.get();
+    }
+
+    public Backpressure getBackpressure(){
+        return backpressure;
+    }
+
+    private void enqueue(List<Location> locations){
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            for (int i = 0, n = locations.size(); i < n; i++) {
+                offer(locations.get(i));
+            }
+            if (ready.isEmpty() && readyBatches.isEmpty()) {
+                return;
+            }
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain(){
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void offer(Location location){
+        switch (backpressure.getStrategy()) {
+            case LATEST:
+                replace(location);
+                break;
+            case DROP_OLDEST:
+                if (ready.size()==backpressure.getCapacity()) {
+                    ready.pollFirst();
+                    dropped.incrementAndGet();
+                }
+                ready.add(location);
+                break;
+            case SAMPLE:
+                if (lastSampleTimeMs!=Long.MIN_VALUE
+                        && location.getTime() - lastSampleTimeMs < backpressure.getPeriodMs()) {
+                    dropped.incrementAndGet();
+                } else {
+                    lastSampleTimeMs = location.getTime();
+                    replace(location);
+                }
+                break;
+            case BATCH:
+                if (collecting==null) {
+                    collecting = new ArrayList<>(backpressure.getCapacity());
+                    // Fixes may stop arriving, so don't wait for one to close the batch.
+                    final List<Location> batch = collecting;
+                    collectingTimeout = () -> timeOut(batch);
+                    Timeouts.HANDLER.postDelayed(collectingTimeout, backpressure.getPeriodMs());
+                }
+                collecting.add(location);
+                if (collecting.size() >= backpressure.getCapacity()
+                        || location.getTime() - collecting.get(0).getTime() >= backpressure.getPeriodMs()) {
+                    readyBatches.add(collecting);
+                    collecting = null;
+                    cancelTimeout();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Hands over a batch that was started a period ago and hasn't filled up, unless it was
+     * handed over meanwhile.
+     */
+    private void timeOut(List<Location> batch){
+        synchronized (this) {
+            if (cancelled || collecting!=batch) {
+                return;
+            }
+            readyBatches.add(collecting);
+            collecting = null;
+            collectingTimeout = null;
+        }
+        scheduleDrain();
+    }
+
+    private void cancelTimeout(){
+        if (collectingTimeout!=null) {
+            Timeouts.HANDLER.removeCallbacks(collectingTimeout);
+            collectingTimeout = null;
+        }
+    }
+
+    private void replace(Location location){
+        if (!ready.isEmpty()) {
+            dropped.addAndGet(ready.size());
+            ready.clear();
+        }
+        ready.add(location);
+    }
+
+    private void drain(){
+        while (true) {
+            final List<Location> next = take();
+            if (next==null) {
+                drainScheduled.set(false);
+                // Something may have been queued after take() came back empty.
+                synchronized (this) {
+                    if (ready.isEmpty() && readyBatches.isEmpty()) {
+                        return;
+                    }
+                }
+                if (!drainScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                observer.onLocations(next);
+            } catch (RuntimeException e) {
+                drainScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private synchronized List<Location> take(){
+        if (cancelled) {
+            return null;
+        }
+        if (!readyBatches.isEmpty()) {
+            return Collections.unmodifiableList(readyBatches.poll());
+        }
+        if (ready.isEmpty()) {
+            return null;
+        }
+        final List<Location> next = ready.size()==1
+                ? Collections.singletonList(ready.poll())
+                : new ArrayList<>(ready);
+        ready.clear();
+        return next;
+    }
+
+    @Override public String toString() {
+        return "LocationSubscription[" + observer + ", " + backpressure + "]";
+    }
+}
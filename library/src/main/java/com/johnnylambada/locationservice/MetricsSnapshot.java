@@ -0,0 +1,174 @@
+package com.johnnylambada.locationservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A point-in-time copy of the service's hot path metrics. Counters are cumulative since the
+ * process started; poll and diff them for rates. {@link #toMap()} flattens everything for export.
+ */
+public class MetricsSnapshot {
+    private final HistogramSnapshot fixAgeMs;
+    private final HistogramSnapshot observerLatencyUs;
+    private final Map<String, HistogramSnapshot> observerDispatchUs;
+    private final HistogramSnapshot serviceCreateUs;
+    private final HistogramSnapshot serviceSetupUs;
+    private final HistogramSnapshot timeToFirstFixMs;
+    private final long fixesReceived;
+    private final long fixesDropped;
+    private final long notificationsCoalesced;
+    private final long providerRegistrations;
+    private final long foregroundTransitions;
+    private final long backgroundFlushes;
+
+    MetricsSnapshot(
+            HistogramSnapshot fixAgeMs,
+            HistogramSnapshot observerLatencyUs,
+            Map<String, HistogramSnapshot> observerDispatchUs,
+            HistogramSnapshot serviceCreateUs,
+            HistogramSnapshot serviceSetupUs,
+            HistogramSnapshot timeToFirstFixMs,
+            long fixesReceived,
+            long fixesDropped,
+            long notificationsCoalesced,
+            long providerRegistrations,
+            long foregroundTransitions,
+            long backgroundFlushes
+    ){
+        this.fixAgeMs = fixAgeMs;
+        this.observerLatencyUs = observerLatencyUs;
+        this.observerDispatchUs = observerDispatchUs;
+        this.serviceCreateUs = serviceCreateUs;
+        this.serviceSetupUs = serviceSetupUs;
+        this.timeToFirstFixMs = timeToFirstFixMs;
+        this.fixesReceived = fixesReceived;
+        this.fixesDropped = fixesDropped;
+        this.notificationsCoalesced = notificationsCoalesced;
+        this.providerRegistrations = providerRegistrations;
+        this.foregroundTransitions = foregroundTransitions;
+        this.backgroundFlushes = backgroundFlushes;
+    }
+
+    /**
+     * Milliseconds between when each fix was computed and when the service received it.
+     */
+    public HistogramSnapshot getFixAgeMs() {
+        return fixAgeMs;
+    }
+
+    /**
+     * Microseconds between the provider callback and the start of each observer call, including
+     * any hop to the observer's executor.
+     */
+    public HistogramSnapshot getObserverLatencyUs() {
+        return observerLatencyUs;
+    }
+
+    /**
+     * Microseconds spent in each registered observer per delivery, keyed by the observer's
+     * {@code toString()}.
+     */
+    public Map<String, HistogramSnapshot> getObserverDispatchUs() {
+        return observerDispatchUs;
+    }
+
+    /**
+     * Microseconds each service start spent in onCreate on the main thread.
+     */
+    public HistogramSnapshot getServiceCreateUs() {
+        return serviceCreateUs;
+    }
+
+    /**
+     * Microseconds of each startup step run on the worker thread after onCreate returned, such
+     * as opening the shared fix ring or fetching the last known location.
+     */
+    public HistogramSnapshot getServiceSetupUs() {
+        return serviceSetupUs;
+    }
+
+    /**
+     * Milliseconds from each service start to its first accepted fix. A cached fix doesn't
+     * count.
+     */
+    public HistogramSnapshot getTimeToFirstFixMs() {
+        return timeToFirstFixMs;
+    }
+
+    public long getFixesReceived() {
+        return fixesReceived;
+    }
+
+    /**
+     * Fixes rejected by a {@link LocationProcessor}.
+     */
+    public long getFixesDropped() {
+        return fixesDropped;
+    }
+
+    /**
+     * Notification updates folded into a later one by the notification rate limit.
+     */
+    public long getNotificationsCoalesced() {
+        return notificationsCoalesced;
+    }
+
+    /**
+     * Location requests made to the provider, including re-registrations by adaptive sampling.
+     */
+    public long getProviderRegistrations() {
+        return providerRegistrations;
+    }
+
+    /**
+     * Moves of the service into or out of the foreground.
+     */
+    public long getForegroundTransitions() {
+        return foregroundTransitions;
+    }
+
+    /**
+     * Batches of buffered fixes delivered while running in the background, on the flush
+     * interval or because the buffer filled, see
+     * {@link LocationServiceConfiguration#isBatchingInBackground()}. The fixes delivered when a
+     * client binds or updates stop aren't counted.
+     */
+    public long getBackgroundFlushes() {
+        return backgroundFlushes;
+    }
+
+    /**
+     * Flattens the snapshot into name/value pairs: counters as-is and histograms as their count,
+     * mean and percentiles.
+     */
+    public Map<String, Number> toMap() {
+        final Map<String, Number> map = new LinkedHashMap<>();
+        map.put("fixes.received", fixesReceived);
+        map.put("fixes.dropped", fixesDropped);
+        map.put("notifications.coalesced", notificationsCoalesced);
+        map.put("provider.registrations", providerRegistrations);
+        map.put("foreground.transitions", foregroundTransitions);
+        map.put("background.flushes", backgroundFlushes);
+        put(map, "fix.age.ms", fixAgeMs);
+        put(map, "observer.latency.us", observerLatencyUs);
+        put(map, "service.create.us", serviceCreateUs);
+        put(map, "service.setup.us", serviceSetupUs);
+        put(map, "time.to.first.fix.ms", timeToFirstFixMs);
+        for (Map.Entry<String, HistogramSnapshot> entry : observerDispatchUs.entrySet()) {
+            put(map, "observer.dispatch.us." + entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    private static void put(Map<String, Number> map, String name, HistogramSnapshot histogram) {
+        map.put(name + ".count", histogram.getCount());
+        map.put(name + ".mean", histogram.getMean());
+        map.put(name + ".p50", histogram.getPercentile(50));
+        map.put(name + ".p90", histogram.getPercentile(90));
+        map.put(name + ".p99", histogram.getPercentile(99));
+    }
+
+    @Override public String toString() {
+        return "MetricsSnapshot" + toMap();
+    }
+}
@@ -0,0 +1,10 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * How the device is moving, as inferred by the adaptive sampler from recent fixes.
+ */
+public enum MotionState {
+    STATIONARY,
+    WALKING,
+    DRIVING
+}
@@ -0,0 +1,83 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * A snapshot of the running statistics since the last reset, see
+ * {@link LocationServiceController#getMotionStatistics()}.
+ */
+public class MotionStatistics {
+    private final long startTimeMs;
+    private final long lastTimeMs;
+    private final int fixCount;
+    private final double distanceM;
+    private final long movingTimeMs;
+    private final float maxSpeedMps;
+    private final double elevationGainM;
+
+    MotionStatistics(long startTimeMs, long lastTimeMs, int fixCount, double distanceM,
+                     long movingTimeMs, float maxSpeedMps, double elevationGainM){
+        this.startTimeMs = startTimeMs;
+        this.lastTimeMs = lastTimeMs;
+        this.fixCount = fixCount;
+        this.distanceM = distanceM;
+        this.movingTimeMs = movingTimeMs;
+        this.maxSpeedMps = maxSpeedMps;
+        this.elevationGainM = elevationGainM;
+    }
+
+    /**
+     * The time of the first fix since the reset, or 0 if there was none.
+     */
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    /**
+     * The time of the latest fix, or 0 if there was none.
+     */
+    public long getLastTimeMs() {
+        return lastTimeMs;
+    }
+
+    public int getFixCount() {
+        return fixCount;
+    }
+
+    /**
+     * The distance travelled while moving, in meters.
+     */
+    public double getDistanceM() {
+        return distanceM;
+    }
+
+    /**
+     * The time spent moving, in milliseconds.
+     */
+    public long getMovingTimeMs() {
+        return movingTimeMs;
+    }
+
+    /**
+     * The distance divided by the moving time, in meters per second.
+     */
+    public double getAverageSpeedMps() {
+        return movingTimeMs > 0 ? distanceM * 1000 / movingTimeMs : 0;
+    }
+
+    public float getMaxSpeedMps() {
+        return maxSpeedMps;
+    }
+
+    /**
+     * The total climb in meters, ignoring altitude changes smaller than the noise of a fix.
+     */
+    public double getElevationGainM() {
+        return elevationGainM;
+    }
+
+    @Override public String toString() {
+        return "MotionStatistics{" + distanceM + " m in " + movingTimeMs + " ms moving"
+                + ", max " + maxSpeedMps + " m/s"
+                + ", +" + elevationGainM + " m"
+                + ", " + fixCount + " fixes}";
+    }
+}
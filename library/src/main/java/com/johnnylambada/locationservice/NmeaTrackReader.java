@@ -0,0 +1,192 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads an NMEA 0183 log. Each valid RMC sentence becomes a fix with its position, speed and
+ * course; a GGA sentence of the same second adds altitude and an accuracy derived from its
+ * hdop, as in {@link GpxTrackReader}. Sentences of any talker are read, sentences with a bad
+ * checksum are skipped and everything else is ignored.
+ */
+public final class NmeaTrackReader implements TrackReader {
+
+    private static final String PROVIDER = "nmea";
+
+    private static final float KNOTS_TO_MPS = 1852f / 3600f;
+
+    private final BufferedReader reader;
+
+    /**
+     * The fix of the last RMC sentence, held back until the next one in case its GGA follows.
+     */
+    private Location pending;
+    private String pendingTime;
+
+    // The last GGA sentence, in case it came before its RMC.
+    private String ggaTime;
+    private double ggaAltitude = Double.NaN;
+    private float ggaHdop = Float.NaN;
+
+    public NmeaTrackReader(Reader reader){
+        if (reader==null){
+            throw new IllegalArgumentException("reader can't be null");
+        }
+        this.reader = reader instanceof BufferedReader
+                ? (BufferedReader) reader
+                : new BufferedReader(reader);
+    }
+
+    @Override
+    public Location read() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String[] fields = fields(line.trim());
+            if (fields == null || fields[0].length() < 5) {
+                continue;
+            }
+            final String type = fields[0].substring(fields[0].length() - 3);
+            if (type.equals("GGA") && fields.length > 9) {
+                ggaTime = fields[1];
+                ggaAltitude = parseDouble(fields[9]);
+                ggaHdop = (float) parseDouble(fields[8]);
+                if (pending != null && ggaTime.equals(pendingTime)) {
+                    applyGga(pending);
+                }
+            } else if (type.equals("RMC") && fields.length > 9 && fields[2].equals("A")) {
+                final Location location = parseRmc(fields);
+                if (location == null) {
+                    continue;
+                }
+                if (fields[1].equals(ggaTime)) {
+                    applyGga(location);
+                }
+                final Location previous = pending;
+                pending = location;
+                pendingTime = fields[1];
+                if (previous != null) {
+                    return previous;
+                }
+            }
+        }
+        final Location last = pending;
+        pending = null;
+        return last;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void applyGga(Location location){
+        if (!Double.isNaN(ggaAltitude)) {
+            location.setAltitude(ggaAltitude);
+        }
+        if (!Float.isNaN(ggaHdop)) {
+            location.setAccuracy(ggaHdop * GpxTrackReader.RANGE_ERROR_M);
+        }
+    }
+
+    private static Location parseRmc(String[] fields){
+        final double latitude = parseCoordinate(fields[3], fields[4], 2);
+        final double longitude = parseCoordinate(fields[5], fields[6], 3);
+        final long timeMs = parseTime(fields[9], fields[1]);
+        if (Double.isNaN(latitude) || Double.isNaN(longitude) || timeMs == Long.MIN_VALUE) {
+            return null;
+        }
+        final Location location = new Location(PROVIDER);
+        location.setTime(timeMs);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        final double knots = parseDouble(fields[7]);
+        if (!Double.isNaN(knots)) {
+            location.setSpeed((float) knots * KNOTS_TO_MPS);
+        }
+        final double course = parseDouble(fields[8]);
+        if (!Double.isNaN(course)) {
+            location.setBearing((float) course);
+        }
+        return location;
+    }
+
+    /**
+     * Splits a sentence into its fields, or returns null if it isn't one or its checksum is
+     * wrong.
+     */
+    static String[] fields(String line){
+        if (line.isEmpty() || line.charAt(0) != '$') {
+            return null;
+        }
+        int end = line.indexOf('*');
+        if (end >= 0) {
+            int checksum = 0;
+            for (int i = 1; i < end; i++) {
+                checksum ^= line.charAt(i);
+            }
+            try {
+                if (Integer.parseInt(line.substring(end + 1).trim(), 16) != checksum) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            end = line.length();
+        }
+        return line.substring(1, end).split(",", -1);
+    }
+
+    /**
+     * Parses {@code ddmm.mmmm} or {@code dddmm.mmmm} and a hemisphere into signed degrees.
+     */
+    private static double parseCoordinate(String value, String hemisphere, int degreeDigits){
+        if (value.length() <= degreeDigits) {
+            return Double.NaN;
+        }
+        try {
+            final double degrees = Integer.parseInt(value.substring(0, degreeDigits))
+                    + Double.parseDouble(value.substring(degreeDigits)) / 60;
+            return hemisphere.equals("S") || hemisphere.equals("W") ? -degrees : degrees;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parses a {@code ddmmyy} date and {@code hhmmss.ss} UTC time into epoch milliseconds.
+     */
+    private static long parseTime(String date, String time){
+        if (date.length() != 6 || time.length() < 6) {
+            return Long.MIN_VALUE;
+        }
+        final int yy;
+        try {
+            yy = Integer.parseInt(date.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+        final String iso = (yy < 80 ? "20" : "19") + date.substring(4, 6)
+                + "-" + date.substring(2, 4)
+                + "-" + date.substring(0, 2)
+                + "T" + time.substring(0, 2)
+                + ":" + time.substring(2, 4)
+                + ":" + time.substring(4)
+                + "Z";
+        return GpxTrackReader.parseTime(iso);
+    }
+
+    private static double parseDouble(String s){
+        if (s.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.johnnylambada.locationservice;
 
 import android.app.Notification;
+import android.location.Location;
+import android.support.annotation.Nullable;
 
+/**
+ * Renders the foreground service notification from the latest fix. Location updates are rendered
+ * on the service's worker thread, at most once per
+ * {@link LocationServiceConfiguration#getNotificationMinIntervalMs()}. Like the notification
+ * itself, the producer outlives the activity that set it and must not reference it.
+ */
 public interface NotificationProducer {
-    Notification produce();
+    Notification produce(@Nullable Location location);
 }
@@ -0,0 +1,132 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Keeps the {@link MotionStatistics} up to date one fix at a time, so reading them never walks
+ * the track.
+ *
+ * Distance is measured in steps of at least {@link #MIN_STEP_M} from the last counted fix, so the
+ * jitter of fixes taken while standing still doesn't run up the odometer. A step counts as moving
+ * if its speed, from the fix or else from the step, is at least {@link #MOVING_SPEED_MPS}; only
+ * moving steps add to the distance and moving time. Steps longer than {@link #MAX_HOP_MS} are
+ * gaps in the track and add nothing. Distances use the equirectangular approximation with a
+ * cached cos(latitude), falling back to haversine for long steps. Altitude is smoothed before
+ * it is added to the elevation gain.
+ *
+ * The service updates it from its worker thread; any thread may take a snapshot or reset it.
+ */
+class Odometer {
+
+    static final double MIN_STEP_M = 10;
+    static final float MOVING_SPEED_MPS = 0.5f;
+    static final long MAX_HOP_MS = 300000; // 5 minutes
+
+    /**
+     * Altitude changes smaller than this are treated as noise by the elevation gain.
+     */
+    static final double ELEVATION_HYSTERESIS_M = 5;
+
+    /**
+     * Weight of a new altitude in the exponential moving average the elevation gain follows.
+     */
+    static final double ALTITUDE_SMOOTHING = 0.2;
+
+    /**
+     * Hops longer than this are measured with haversine.
+     */
+    private static final double EQUIRECTANGULAR_MAX_M = 10000;
+
+    /**
+     * How far the latitude may move before the cached cosine is recomputed.
+     */
+    private static final double COS_LAT_TOLERANCE_DEG = 0.1;
+
+    private int fixCount;
+    private long startTimeMs;
+    private long lastTimeMs;
+    // The last fix a step was measured to.
+    private long stepTimeMs;
+    private double stepLat;
+    private double stepLon;
+    private double distanceM;
+    private long movingTimeMs;
+    private float maxSpeedMps;
+    private double elevationGainM;
+    private double smoothedAltitudeM = Double.NaN;
+    private double elevationReferenceM = Double.NaN;
+
+    private double cosLatAt = Double.NaN;
+    private double cosLat;
+
+    synchronized void add(long timeMs, double lat, double lon, double altitudeM, float speedMps){
+        if (fixCount > 0 && timeMs <= lastTimeMs) {
+            return;
+        }
+        if (fixCount == 0) {
+            startTimeMs = timeMs;
+            step(timeMs, lat, lon);
+        } else {
+            final long dtMs = timeMs - stepTimeMs;
+            if (dtMs > MAX_HOP_MS) {
+                step(timeMs, lat, lon);
+            } else {
+                final double stepM = distance(stepLat, stepLon, lat, lon);
+                if (stepM >= MIN_STEP_M) {
+                    final float stepSpeedMps = Float.isNaN(speedMps) ? (float) (stepM * 1000 / dtMs) : speedMps;
+                    if (stepSpeedMps >= MOVING_SPEED_MPS) {
+                        distanceM += stepM;
+                        movingTimeMs += dtMs;
+                        maxSpeedMps = Math.max(maxSpeedMps, stepSpeedMps);
+                    }
+                    step(timeMs, lat, lon);
+                }
+            }
+        }
+        if (!Double.isNaN(altitudeM)) {
+            smoothedAltitudeM = Double.isNaN(smoothedAltitudeM)
+                    ? altitudeM
+                    : smoothedAltitudeM + ALTITUDE_SMOOTHING * (altitudeM - smoothedAltitudeM);
+            if (Double.isNaN(elevationReferenceM) || smoothedAltitudeM < elevationReferenceM) {
+                elevationReferenceM = smoothedAltitudeM;
+            } else if (smoothedAltitudeM > elevationReferenceM + ELEVATION_HYSTERESIS_M) {
+                elevationGainM += smoothedAltitudeM - elevationReferenceM;
+                elevationReferenceM = smoothedAltitudeM;
+            }
+        }
+        fixCount++;
+        lastTimeMs = timeMs;
+    }
+
+    private void step(long timeMs, double lat, double lon){
+        stepTimeMs = timeMs;
+        stepLat = lat;
+        stepLon = lon;
+    }
+
+    private double distance(double lat1, double lon1, double lat2, double lon2){
+        if (Double.isNaN(cosLatAt) || Math.abs(lat2 - cosLatAt) > COS_LAT_TOLERANCE_DEG) {
+            cosLatAt = lat2;
+            cosLat = Math.cos(Math.toRadians(lat2));
+        }
+        final double meters = GeoMath.equirectangular(lat1, lon1, lat2, lon2, cosLat);
+        return meters <= EQUIRECTANGULAR_MAX_M
+                ? meters
+                : GeoMath.haversine(lat1, lon1, lat2, lon2);
+    }
+
+    synchronized MotionStatistics snapshot(){
+        return new MotionStatistics(startTimeMs, lastTimeMs, fixCount, distanceM,
+                movingTimeMs, maxSpeedMps, elevationGainM);
+    }
+
+    synchronized void reset(){
+        fixCount = 0;
+        startTimeMs = 0;
+        lastTimeMs = 0;
+        distanceM = 0;
+        movingTimeMs = 0;
+        maxSpeedMps = 0;
+        elevationGainM = 0;
+        smoothedAltitudeM = Double.NaN;
+        elevationReferenceM = Double.NaN;
+    }
+}
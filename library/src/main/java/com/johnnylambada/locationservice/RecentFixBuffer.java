@@ -0,0 +1,243 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The last {@link #capacity()} fixes, kept as primitives in one {@link AtomicLongArray} instead
+ * of a list of {@link Location}s. A day at 1 Hz takes about 4 MB here, against tens of MB of
+ * Locations and their Bundles.
+ *
+ * Every fix gets a sequence number that keeps growing; the buffer holds sequences
+ * {@link #getFirstSequence()} up to, but not including, {@link #getEndSequence()}. The service adds
+ * fixes from its worker thread without allocating. Readers on any thread either copy a
+ * consistent range into their own arrays with {@link #copyLatest} or walk the buffer in place with
+ * a reusable {@link Cursor}.
+ *
+ * Each slot is a seqlock: its stamp is odd while the writer fills it and {@code 2 * sequence + 2}
+ * once it holds that sequence. Every field is read and written with volatile semantics, so a
+ * reader that sees the same even stamp before and after reading a slot knows no write to it
+ * came in between. Plain array accesses with a fence would be cheaper, but Java 8 has no
+ * portable load fence, and at one fix a second the writer's cost doesn't matter.
+ */
+public class RecentFixBuffer {
+
+    // Longs per slot and their offsets. Accuracy and speed share a long as two float bits.
+    private static final int STRIDE = 6;
+    private static final int STAMP = 0;
+    private static final int TIME = 1;
+    private static final int LATITUDE = 2;
+    private static final int LONGITUDE = 3;
+    private static final int ACCURACY_SPEED = 4;
+    private static final int BEARING = 5;
+
+    private final int capacity;
+    /**
+     * One more than the capacity, so the slot being overwritten by an add is never one of the
+     * capacity fixes readers may see.
+     */
+    private final int slots;
+    private final AtomicLongArray fixes;
+
+    /**
+     * One past the newest published sequence. Written only by the adding thread, after the
+     * slot's fields.
+     */
+    private final AtomicLong end = new AtomicLong();
+
+    RecentFixBuffer(int capacity){
+        if (capacity<=0){
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        this.fixes = new AtomicLongArray(slots * STRIDE);
+    }
+
+    void add(Location location){
+        add(
+                location.getTime(),
+                location.getLatitude(),
+                location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN
+        );
+    }
+
+    /**
+     * Adds a fix, overwriting the oldest once full. Must be called from a single thread.
+     */
+    void add(long time, double lat, double lon, float acc, float spd, float brg){
+        final long sequence = end.get();
+        final int base = (int) (sequence % slots) * STRIDE;
+        fixes.set(base + STAMP, 2 * sequence + 1);
+        fixes.set(base + TIME, time);
+        fixes.set(base + LATITUDE, Double.doubleToRawLongBits(lat));
+        fixes.set(base + LONGITUDE, Double.doubleToRawLongBits(lon));
+        fixes.set(base + ACCURACY_SPEED,
+                (long) Float.floatToRawIntBits(acc) << 32 | (Float.floatToRawIntBits(spd) & 0xffffffffL));
+        fixes.set(base + BEARING, Float.floatToRawIntBits(brg));
+        fixes.set(base + STAMP, 2 * sequence + 2);
+        end.set(sequence + 1);
+    }
+
+    public int capacity(){
+        return capacity;
+    }
+
+    public int size(){
+        return (int) Math.min(end.get(), capacity);
+    }
+
+    public long getEndSequence(){
+        return end.get();
+    }
+
+    public long getFirstSequence(){
+        return Math.max(0, end.get() - capacity);
+    }
+
+    /**
+     * True while the fix with the given sequence is still in the buffer. Use
+     * {@link Cursor#isValid()} to know whether a fix read in place was consistent.
+     */
+    public boolean isAvailable(long sequence){
+        final long end = this.end.get();
+        return sequence < end && sequence >= end - capacity;
+    }
+
+    /**
+     * Copies up to {@code max} of the newest fixes into the caller's arrays, oldest first, and
+     * returns how many were copied. Pass null for columns that aren't needed. Each non-null array
+     * must hold at least {@code max} elements. Every slot is validated as it is copied and the
+     * copy is retried if the writer overtakes it, so the result is a consistent range.
+     */
+    public int copyLatest(int max,
+                          long[] timeMsOut,
+                          double[] latitudeOut,
+                          double[] longitudeOut,
+                          float[] accuracyOut,
+                          float[] speedOut,
+                          float[] bearingOut){
+        retry:
+        while (true) {
+            final long endBefore = end.get();
+            final int count = (int) Math.min(max, Math.min(endBefore, capacity));
+            final long first = endBefore - count;
+            for (int i = 0; i < count; i++) {
+                final long sequence = first + i;
+                final int base = (int) (sequence % slots) * STRIDE;
+                final long stamp = 2 * sequence + 2;
+                if (fixes.get(base + STAMP) != stamp) {
+                    continue retry;
+                }
+                final long time = fixes.get(base + TIME);
+                final long lat = fixes.get(base + LATITUDE);
+                final long lon = fixes.get(base + LONGITUDE);
+                final long accuracySpeed = fixes.get(base + ACCURACY_SPEED);
+                final long brg = fixes.get(base + BEARING);
+                if (fixes.get(base + STAMP) != stamp) {
+                    continue retry;
+                }
+                if (timeMsOut != null) timeMsOut[i] = time;
+                if (latitudeOut != null) latitudeOut[i] = Double.longBitsToDouble(lat);
+                if (longitudeOut != null) longitudeOut[i] = Double.longBitsToDouble(lon);
+                if (accuracyOut != null) accuracyOut[i] = Float.intBitsToFloat((int) (accuracySpeed >>> 32));
+                if (speedOut != null) speedOut[i] = Float.intBitsToFloat((int) accuracySpeed);
+                if (bearingOut != null) bearingOut[i] = Float.intBitsToFloat((int) brg);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns a cursor positioned before the oldest of the newest {@code count} fixes. Keep and
+     * {@link Cursor#reset reset} it to avoid allocating on every read.
+     */
+    public Cursor cursor(int count){
+        final Cursor cursor = new Cursor();
+        cursor.reset(count);
+        return cursor;
+    }
+
+    /**
+     * Walks fixes oldest first, reading the buffer in place.
+     */
+    public final class Cursor {
+        private long sequence;
+        private long end;
+        private int base;
+
+        private Cursor(){
+        }
+
+        /**
+         * Repositions the cursor before the oldest of the newest {@code count} fixes.
+         */
+        public void reset(int count){
+            end = RecentFixBuffer.this.end.get();
+            sequence = end - Math.min(count, Math.min(end, capacity)) - 1;
+        }
+
+        /**
+         * Moves to the next fix, skipping fixes overwritten since the cursor was reset. Returns
+         * false when there are no more.
+         */
+        public boolean next(){
+            sequence = Math.max(sequence + 1, RecentFixBuffer.this.end.get() - capacity);
+            if (sequence >= end) {
+                return false;
+            }
+            base = (int) (sequence % slots) * STRIDE;
+            return true;
+        }
+
+        public long getSequence(){
+            return sequence;
+        }
+
+        /**
+         * True if the current fix wasn't overwritten before or while it was read. Check it after
+         * the getters.
+         */
+        public boolean isValid(){
+            return fixes.get(base + STAMP) == 2 * sequence + 2;
+        }
+
+        public long getTimeMs(){
+            return fixes.get(base + TIME);
+        }
+
+        public double getLatitude(){
+            return Double.longBitsToDouble(fixes.get(base + LATITUDE));
+        }
+
+        public double getLongitude(){
+            return Double.longBitsToDouble(fixes.get(base + LONGITUDE));
+        }
+
+        /**
+         * Accuracy in meters, or NaN if the fix had none.
+         */
+        public float getAccuracy(){
+            return Float.intBitsToFloat((int) (fixes.get(base + ACCURACY_SPEED) >>> 32));
+        }
+
+        /**
+         * Speed in meters per second, or NaN if the fix had none.
+         */
+        public float getSpeed(){
+            return Float.intBitsToFloat((int) fixes.get(base + ACCURACY_SPEED));
+        }
+
+        /**
+         * Bearing in degrees, or NaN if the fix had none.
+         */
+        public float getBearing(){
+            return Float.intBitsToFloat((int) fixes.get(base + BEARING));
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.os.Handler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link LocationSource} that plays back a recorded track, paced by the fixes' times. A speed
+ * of 1 replays in real time, 60 plays an hour in a minute and {@link #MAX_SPEED} delivers as
+ * fast as the observer keeps up. The request's interval is ignored; the track plays at the rate
+ * it was recorded.
+ *
+ * The track is read on a dedicated thread and delivered on the executor in batches of the fixes
+ * that are due, at most {@value #MAX_BATCH} at a time. Only a few batches may be in flight, so a
+ * slow observer slows the replay down rather than queueing the whole track. Removing the
+ * observer pauses the replay and requesting updates again resumes it where it stopped.
+ *
+ * Nothing here needs a running Android framework, so with a direct executor the service's
+ * pipeline can be driven from a plain JVM.
+ */
+public final class ReplayLocationSource implements LocationSource, Closeable {
+
+    private static final String TAG = "LocationReplay";
+
+    /**
+     * Replays without pausing between fixes.
+     */
+    public static final float MAX_SPEED = Float.POSITIVE_INFINITY;
+
+    static final int MAX_BATCH = 64;
+
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final TrackReader reader;
+    private final float speed;
+    private final Executor executor;
+    private final Thread thread;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicLong replayed = new AtomicLong();
+
+    private volatile BatchLocationObserver observer;
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    /**
+     * @param speed    how many times faster than recorded to replay, or {@link #MAX_SPEED}
+     * @param executor where batches are delivered; a direct executor delivers on the replay
+     *                 thread
+     */
+    public ReplayLocationSource(TrackReader reader, float speed, Executor executor){
+        if (reader==null){
+            throw new IllegalArgumentException("reader can't be null");
+        }
+        if (!(speed > 0)){
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        if (executor==null){
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        this.reader = reader;
+        this.speed = speed;
+        this.executor = executor;
+        this.thread = new Thread(this::run, TAG);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * A factory for {@link LocationServiceConfiguration.Builder#locationSource}. The track is
+     * opened on the replay thread when updates are first requested, and delivered on the
+     * service's worker thread.
+     */
+    public static Factory factory(Callable<TrackReader> opener, float speed){
+        if (opener==null){
+            throw new IllegalArgumentException("opener can't be null");
+        }
+        return (context, looper) -> new ReplayLocationSource(
+                new LazyTrackReader(opener), speed, new Handler(looper)::post);
+    }
+
+    @Override
+    public void requestLocationUpdates(LocationRequestSpec spec, long maxWaitTimeMs,
+                                       BatchLocationObserver observer){
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        this.observer = observer;
+        synchronized (thread) {
+            if (thread.getState() == Thread.State.NEW && !closed) {
+                thread.start();
+            }
+        }
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void removeLocationUpdates(BatchLocationObserver observer){
+        if (this.observer == observer) {
+            this.observer = null;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * A recorded track has no last location, so this delivers nothing.
+     */
+    @Override
+    public void requestLastLocation(BatchLocationObserver observer){
+    }
+
+    /**
+     * The number of fixes delivered so far. Fixes that come due as the replay is paused are
+     * skipped.
+     */
+    public long getReplayedCount(){
+        return replayed.get();
+    }
+
+    /**
+     * True once the whole track has been delivered, or the replay ended early.
+     */
+    public boolean isFinished(){
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Waits until the whole track has been delivered, and returns false if it took longer than
+     * the timeout.
+     */
+    public boolean awaitFinished(long timeoutMs) throws InterruptedException {
+        return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The error that ended the replay early, or null.
+     */
+    public IOException getError(){
+        return error;
+    }
+
+    /**
+     * Stops the replay and closes the track.
+     */
+    @Override
+    public void close(){
+        closed = true;
+        observer = null;
+        synchronized (thread) {
+            if (thread.getState() == Thread.State.NEW) {
+                closeReader();
+                finished.countDown();
+                return;
+            }
+        }
+        // Also wakes the thread if it is waiting for a batch slot.
+        thread.interrupt();
+    }
+
+    // region replay thread
+    // The wall clock and fix time the pacing is measured from, reset when the replay pauses.
+    private long baseNanos;
+    private long baseTimeMs = Long.MIN_VALUE;
+
+    private void run(){
+        List<Location> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            Location location;
+            while (awaitObserver() && (location = reader.read()) != null) {
+                if (speed != MAX_SPEED) {
+                    if (baseTimeMs == Long.MIN_VALUE) {
+                        baseNanos = System.nanoTime();
+                        baseTimeMs = location.getTime();
+                    }
+                    final long dueNanos = baseNanos
+                            + (long) ((location.getTime() - baseTimeMs) * 1e6 / speed);
+                    if (dueNanos > System.nanoTime()) {
+                        if (!batch.isEmpty()) {
+                            deliver(batch);
+                            batch = new ArrayList<>(MAX_BATCH);
+                        }
+                        if (!sleepUntil(dueNanos)) {
+                            if (!awaitObserver()) {
+                                break;
+                            }
+                            // Resume with this fix, without catching up on the pause.
+                            baseNanos = System.nanoTime();
+                            baseTimeMs = location.getTime();
+                        }
+                    }
+                }
+                batch.add(location);
+                if (batch.size() == MAX_BATCH) {
+                    deliver(batch);
+                    batch = new ArrayList<>(MAX_BATCH);
+                }
+            }
+            if (!batch.isEmpty() && !closed) {
+                deliver(batch);
+            }
+            // Wait for the last batches to be delivered.
+            inFlight.acquire(MAX_IN_FLIGHT);
+            inFlight.release(MAX_IN_FLIGHT);
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeReader();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Parks while there is no observer. Returns false if the source was closed.
+     */
+    private boolean awaitObserver(){
+        if (observer == null) {
+            // Paced from the first fix after the pause.
+            baseTimeMs = Long.MIN_VALUE;
+        }
+        while (observer == null && !closed) {
+            LockSupport.park(this);
+        }
+        return !closed;
+    }
+
+    /**
+     * Parks until the given time. Returns false if the replay was paused or closed meanwhile.
+     */
+    private boolean sleepUntil(long dueNanos){
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+            if (observer == null || closed) {
+                return false;
+            }
+            LockSupport.parkNanos(this, waitNanos);
+        }
+        return true;
+    }
+
+    private void deliver(List<Location> batch) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    final BatchLocationObserver current = observer;
+                    if (current != null) {
+                        current.onLocations(batch);
+                        replayed.addAndGet(batch.size());
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void closeReader(){
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+    }
+    // endregion
+
+    /**
+     * Opens the track on first read, so a factory doesn't touch the file system on the main
+     * thread.
+     */
+    private static final class LazyTrackReader implements TrackReader {
+        private final Callable<TrackReader> opener;
+        private TrackReader reader;
+
+        LazyTrackReader(Callable<TrackReader> opener){
+            this.opener = opener;
+        }
+
+        @Override
+        public Location read() throws IOException {
+            if (reader == null) {
+                try {
+                    reader = opener.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Could not open track", e);
+                }
+            }
+            return reader.read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.johnnylambada.locationservice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the {@link LocationRequestSpec}s of the active clients into the one request the
+ * provider is registered with: the shortest interval and fastest interval, the most accurate
+ * priority and the smallest displacement any of them asked for. That is the cheapest request
+ * that satisfies every client; each client is then decimated back to its own rate by a
+ * {@link DecimatingObserver}.
+ *
+ * Observers registered without a spec take every fix, so they are owed the configuration's
+ * request, adaptive sampling included. It is merged in while any of them is registered, and
+ * used alone while no client with a spec is active.
+ */
+class RequestMultiplexer {
+
+    /**
+     * Told when the merged request may have changed, on the thread that changed it.
+     */
+    interface Listener {
+        void onRequestChanged();
+    }
+
+    private final LocationDispatcher dispatcher;
+
+    // Guarded by this.
+    private final Map<Object, LocationRequestSpec> specs = new HashMap<>();
+    private boolean undecimatedObservers;
+    private volatile Listener listener;
+
+    RequestMultiplexer(LocationDispatcher dispatcher){
+        this.dispatcher = dispatcher;
+        dispatcher.setRegistrationListener(this::onObserversChanged);
+    }
+
+    void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Adds or replaces a client's spec.
+     */
+    void put(Object client, LocationRequestSpec spec){
+        final LocationRequestSpec previous;
+        synchronized (this) {
+            previous = specs.put(client, spec);
+        }
+        if (!spec.equals(previous)) {
+            notifyListener();
+        }
+    }
+
+    void remove(Object client){
+        final LocationRequestSpec previous;
+        synchronized (this) {
+            previous = specs.remove(client);
+        }
+        if (previous != null) {
+            notifyListener();
+        }
+    }
+
+    /**
+     * Returns the merged request of the active clients, including {@code fallback} if there are
+     * none or observers without a spec are registered.
+     */
+    LocationRequestSpec resolve(LocationRequestSpec fallback){
+        final List<LocationRequestSpec> active;
+        synchronized (this) {
+            active = new ArrayList<>(specs.values());
+            if (active.isEmpty() || undecimatedObservers) {
+                active.add(fallback);
+            }
+        }
+        return merge(active);
+    }
+
+    /**
+     * Called by the dispatcher whenever an observer is added or removed.
+     */
+    private void onObserversChanged(){
+        final boolean changed;
+        synchronized (this) {
+            final boolean undecimated = dispatcher.hasUndecimatedObservers();
+            changed = undecimated != undecimatedObservers;
+            undecimatedObservers = undecimated;
+        }
+        if (changed) {
+            notifyListener();
+        }
+    }
+
+    private void notifyListener(){
+        final Listener current = listener;
+        if (current != null) {
+            current.onRequestChanged();
+        }
+    }
+
+    /**
+     * The least demanding request that is at least as demanding as each of the specs.
+     */
+    static LocationRequestSpec merge(Collection<LocationRequestSpec> specs){
+        final Iterator<LocationRequestSpec> iterator = specs.iterator();
+        final LocationRequestSpec first = iterator.next();
+        long intervalMs = first.getIntervalMs();
+        long fastestIntervalMs = first.getFastestIntervalMs();
+        int priority = first.getPriority();
+        float smallestDisplacementM = first.getSmallestDisplacementM();
+        while (iterator.hasNext()) {
+            final LocationRequestSpec spec = iterator.next();
+            intervalMs = Math.min(intervalMs, spec.getIntervalMs());
+            fastestIntervalMs = Math.min(fastestIntervalMs, spec.getFastestIntervalMs());
+            // Lower values ask for more accuracy.
+            priority = Math.min(priority, spec.getPriority());
+            smallestDisplacementM = Math.min(smallestDisplacementM, spec.getSmallestDisplacementM());
+        }
+        return new LocationRequestSpec.Builder()
+                .intervalMs(intervalMs)
+                .fastestIntervalMs(fastestIntervalMs)
+                .priority(priority)
+                .smallestDisplacementM(smallestDisplacementM)
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+package com.johnnylambada.locationservice;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The authoritative, in-memory record of whether location updates are requested.
+ *
+ * SharedPreferences are read once, the first time the state is needed, to restore it after a
+ * process restart. From then on reads are a volatile load and changes are announced to the
+ * registered {@link RequestingLocationUpdatesObserver}s directly. Changes are written back to
+ * SharedPreferences on a background thread; a burst of changes is written once, with the value
+ * current when the write runs.
+ */
+class SessionState {
+
+    private final String key;
+    private final Object loadLock = new Object();
+    private final AtomicBoolean requestingLocationUpdates = new AtomicBoolean();
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    private final CopyOnWriteArrayList<RequestingLocationUpdatesObserver> observers = new CopyOnWriteArrayList<>();
+    private volatile Context context;
+    private ExecutorService writer;
+
+    SessionState(String key){
+        this.key = key;
+    }
+
+    boolean isRequestingLocationUpdates(Context context){
+        load(context);
+        return requestingLocationUpdates.get();
+    }
+
+    /**
+     * Updates the state. Observers are told on the main thread, and only if the value changed.
+     */
+    void setRequestingLocationUpdates(Context context, boolean value){
+        load(context);
+        if (requestingLocationUpdates.getAndSet(value)==value) {
+            return;
+        }
+        final Executor main = LocationExecutors.main();
+        for (RequestingLocationUpdatesObserver observer : observers) {
+            main.execute(() -> observer.isRequestingLocationUpdates(value));
+        }
+        if (writePending.compareAndSet(false, true)) {
+            writer().execute(this::persist);
+        }
+    }
+
+    void addObserver(RequestingLocationUpdatesObserver observer){
+        observers.addIfAbsent(observer);
+    }
+
+    void removeObserver(RequestingLocationUpdatesObserver observer){
+        observers.remove(observer);
+    }
+
+    private void load(Context context){
+        if (this.context!=null) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (this.context==null) {
+                final Context application = context.getApplicationContext();
+                requestingLocationUpdates.set(preferences(application).getBoolean(key, false));
+                this.context = application;
+            }
+        }
+    }
+
+    private void persist(){
+        writePending.set(false);
+        preferences(context)
+                .edit()
+                .putBoolean(key, requestingLocationUpdates.get())
+                .commit();
+    }
+
+    private synchronized Executor writer(){
+        if (writer==null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "LocationSessionState");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    private static SharedPreferences preferences(Context context){
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
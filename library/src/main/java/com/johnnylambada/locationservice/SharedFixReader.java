@@ -0,0 +1,258 @@
+package com.johnnylambada.locationservice;
+
+import android.content.Context;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the fixes the {@link LocationService} shares with other processes, see
+ * {@link LocationServiceConfiguration.Builder#shareFixes(boolean)}. Each process opens its own
+ * reader on the shared file and reads fixes straight out of the mapping, without Binder calls
+ * or a location subscription of its own.
+ *
+ * A reader starts at the newest fix, or at the first one if none is published yet, and moves
+ * forward with {@link #poll()} or {@link #await(long)}; the getters then describe the current
+ * fix. A reader that falls more than the ring's capacity behind skips to the oldest fix still in the ring and counts the fixes
+ * it missed in {@link #getLostCount()}. If the service replaces the ring with one of another
+ * layout, the reader reopens it. Not thread safe.
+ *
+ * <pre>
+ * SharedFixReader reader = SharedFixReader.open(context);
+ * while (reader.await(60000)) {
+ *     upload(reader.getTimeMs(), reader.getLatitude(), reader.getLongitude());
+ * }
+ * </pre>
+ */
+public class SharedFixReader implements Closeable {
+
+    /**
+     * The shared file, relative to {@link Context#getFilesDir()}.
+     */
+    public static final String FILE_NAME = "locationservice/fixes.ring";
+
+    private static final long MAX_AWAIT_SLEEP_MS = 16;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long nextSequence;
+    private long lost;
+
+    private long sequence = -1;
+    private long timeMs;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private float accuracy;
+    private float speed;
+    private float bearing;
+
+    private SharedFixReader(File file){
+        this.file = file;
+    }
+
+    /**
+     * Opens the app's shared ring. Fails if the service hasn't created it yet.
+     */
+    public static SharedFixReader open(Context context) throws IOException {
+        return open(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    public static SharedFixReader open(File file) throws IOException {
+        final SharedFixReader reader = new SharedFixReader(file);
+        reader.map();
+        reader.nextSequence = Math.max(0, reader.readEnd() - 1);
+        return reader;
+    }
+
+    private void map() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < SharedFixRing.HEADER_SIZE) {
+                throw new IOException(file + " is not a fix ring");
+            }
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SharedFixRing.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(SharedFixRing.HEADER_MAGIC) != SharedFixRing.MAGIC
+                    || header.getInt(SharedFixRing.HEADER_FORMAT) != SharedFixRing.FORMAT
+                    || header.getInt(SharedFixRing.HEADER_SLOT_SIZE) != SharedFixRing.SLOT_SIZE) {
+                throw new IOException(file + " is not a fix ring");
+            }
+            final int capacity = header.getInt(SharedFixRing.HEADER_CAPACITY);
+            final long size = SharedFixRing.HEADER_SIZE + (long) capacity * SharedFixRing.SLOT_SIZE;
+            if (channel.size() < size) {
+                throw new IOException(file + " is truncated");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.capacity = capacity;
+        }
+    }
+
+    private long readEnd(){
+        final long end = buffer.getLong(SharedFixRing.HEADER_END);
+        SharedFixRing.loadFence();
+        return end;
+    }
+
+    /**
+     * Moves to the next fix if there is one. Never blocks.
+     */
+    public boolean poll(){
+        if (buffer.getInt(SharedFixRing.HEADER_RETIRED) != 0) {
+            try {
+                map();
+            } catch (IOException e) {
+                // The replacement isn't ready yet.
+                return false;
+            }
+            nextSequence = 0;
+        }
+        long end = readEnd();
+        while (nextSequence < end) {
+            if (end - nextSequence > capacity) {
+                lost += end - capacity - nextSequence;
+                nextSequence = end - capacity;
+            }
+            final int slot = SharedFixRing.HEADER_SIZE + (int) (nextSequence % capacity) * SharedFixRing.SLOT_SIZE;
+            final long expected = 2 * nextSequence + 2;
+            final long before = buffer.getLong(slot + SharedFixRing.SLOT_VERSION);
+            SharedFixRing.loadFence();
+            final long time = buffer.getLong(slot + SharedFixRing.SLOT_TIME);
+            final double lat = buffer.getDouble(slot + SharedFixRing.SLOT_LATITUDE);
+            final double lon = buffer.getDouble(slot + SharedFixRing.SLOT_LONGITUDE);
+            final double alt = buffer.getDouble(slot + SharedFixRing.SLOT_ALTITUDE);
+            final float acc = buffer.getFloat(slot + SharedFixRing.SLOT_ACCURACY);
+            final float spd = buffer.getFloat(slot + SharedFixRing.SLOT_SPEED);
+            final float brg = buffer.getFloat(slot + SharedFixRing.SLOT_BEARING);
+            final int checksum = buffer.getInt(slot + SharedFixRing.SLOT_CHECKSUM);
+            SharedFixRing.loadFence();
+            final long after = buffer.getLong(slot + SharedFixRing.SLOT_VERSION);
+            // The versions can pass on a torn copy, see SharedFixRing.storeFence().
+            if (before == expected && after == expected
+                    && checksum == SharedFixRing.checksum(nextSequence, time, lat, lon, alt, acc, spd, brg)) {
+                sequence = nextSequence++;
+                timeMs = time;
+                latitude = lat;
+                longitude = lon;
+                altitude = alt;
+                accuracy = acc;
+                speed = spd;
+                bearing = brg;
+                return true;
+            }
+            // The writer lapped us while we copied; catch up.
+            end = readEnd();
+            final long oldest = Math.max(nextSequence + 1, end - capacity);
+            lost += oldest - nextSequence;
+            nextSequence = oldest;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next fix, waiting up to {@code timeoutMs} for one. Returns false on timeout.
+     */
+    public boolean await(long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        long sleepMs = 1;
+        while (!poll()) {
+            final long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(sleepMs, remainingMs));
+            sleepMs = Math.min(sleepMs * 2, MAX_AWAIT_SLEEP_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Positions the reader so the next fix read is the given sequence, or the oldest still in
+     * the ring.
+     */
+    public void seek(long sequence){
+        nextSequence = Math.max(sequence, 0);
+    }
+
+    /**
+     * The sequence of the oldest fix still in the ring.
+     */
+    public long getFirstSequence(){
+        return Math.max(0, readEnd() - capacity);
+    }
+
+    /**
+     * One past the sequence of the newest published fix.
+     */
+    public long getEndSequence(){
+        return readEnd();
+    }
+
+    /**
+     * The number of fixes overwritten before this reader got to them.
+     */
+    public long getLostCount(){
+        return lost;
+    }
+
+    /**
+     * Unmapping is left to the garbage collector; the reader must not be used afterwards.
+     */
+    @Override public void close(){
+        buffer = null;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * UTC time of the fix in milliseconds since the epoch.
+     */
+    public long getTimeMs() {
+        return timeMs;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Altitude in meters, or NaN if the fix had none.
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    /**
+     * Accuracy in meters, or NaN if the fix had none.
+     */
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Speed in meters per second, or NaN if the fix had none.
+     */
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Bearing in degrees, or NaN if the fix had none.
+     */
+    public float getBearing() {
+        return bearing;
+    }
+}
@@ -0,0 +1,205 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The writing side of a ring of fixes in a memory-mapped file, read by other processes with
+ * {@link SharedFixReader}.
+ *
+ * The file starts with a header holding the layout and the end sequence, one past the newest
+ * published fix, followed by {@code capacity} fixed-width slots; fix {@code n} lives in slot
+ * {@code n % capacity}. Each slot starts with a seqlock version: {@code 2n + 1} while fix
+ * {@code n} is being written and {@code 2n + 2} once it is complete. Each slot ends with a
+ * checksum of the sequence and the fields, like {@link TrackStore}'s records. A reader accepts a
+ * slot only if it sees the same even version before and after copying it and the copy matches
+ * the checksum; the versions alone aren't enough, see {@link #storeFence()}.
+ *
+ * There is a single writer, the service's worker thread. Publishing is a few stores into the
+ * mapping and never blocks on readers or makes a system call. A restarted service resumes after
+ * the existing fixes; a ring with another layout is retired and replaced, see
+ * {@link SharedFixReader}.
+ */
+class SharedFixRing implements Closeable {
+
+    static final int MAGIC = 0x4c534652; // "LSFR"
+    static final int FORMAT = 2;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_FORMAT = 4;
+    static final int HEADER_CAPACITY = 8;
+    static final int HEADER_SLOT_SIZE = 12;
+    static final int HEADER_RETIRED = 16;
+    static final int HEADER_END = 24;
+    static final int HEADER_SIZE = 64;
+
+    static final int SLOT_VERSION = 0;
+    static final int SLOT_TIME = 8;
+    static final int SLOT_LATITUDE = 16;
+    static final int SLOT_LONGITUDE = 24;
+    static final int SLOT_ALTITUDE = 32;
+    static final int SLOT_ACCURACY = 40;
+    static final int SLOT_SPEED = 44;
+    static final int SLOT_BEARING = 48;
+    static final int SLOT_CHECKSUM = 52;
+    static final int SLOT_SIZE = 56;
+
+    /**
+     * Volatile accesses to this field order the plain stores and loads on the mapping around
+     * them, but only in one direction: on ARMv8, ART emits a store-release and a load-acquire,
+     * not full barriers. Java 8 has no portable fence, so a reader can still copy a torn slot
+     * between two matching versions; the slot's checksum is what rejects it. Only touched
+     * through {@link #storeFence()} and {@link #loadFence()}.
+     */
+    private static volatile int fence;
+
+    /**
+     * Keeps the stores to the mapping before the call from being reordered after it. Later
+     * stores may still move ahead of it.
+     */
+    static void storeFence(){
+        fence = 0;
+    }
+
+    /**
+     * Keeps the loads from the mapping after the call from being reordered before it. Earlier
+     * loads may still move after it. The volatile load can't be elided even though its value is
+     * unused.
+     */
+    static int loadFence(){
+        return fence;
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long end;
+
+    private SharedFixRing(MappedByteBuffer buffer, int capacity, long end){
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.end = end;
+    }
+
+    /**
+     * Opens the ring in the given file, resuming after its fixes if it has the same layout and
+     * otherwise retiring it and starting a new one.
+     */
+    static SharedFixRing open(File file, int capacity) throws IOException {
+        if (capacity<=0){
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        final File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        if (file.length() == size) {
+            final MappedByteBuffer existing = map(file, size);
+            if (existing.getInt(HEADER_MAGIC) == MAGIC
+                    && existing.getInt(HEADER_FORMAT) == FORMAT
+                    && existing.getInt(HEADER_CAPACITY) == capacity
+                    && existing.getInt(HEADER_SLOT_SIZE) == SLOT_SIZE
+                    && existing.getInt(HEADER_RETIRED) == 0) {
+                return new SharedFixRing(existing, capacity, existing.getLong(HEADER_END));
+            }
+        }
+        if (file.length() >= HEADER_SIZE) {
+            // Readers still map the old file; tell them to reopen.
+            map(file, HEADER_SIZE).putInt(HEADER_RETIRED, 1);
+            storeFence();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+        final MappedByteBuffer buffer = map(file, size);
+        buffer.putInt(HEADER_FORMAT, FORMAT);
+        buffer.putInt(HEADER_CAPACITY, capacity);
+        buffer.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+        buffer.putLong(HEADER_END, 0);
+        storeFence();
+        // Written last so a reader never sees a valid magic with an incomplete header.
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        storeFence();
+        return new SharedFixRing(buffer, capacity, 0);
+    }
+
+    /**
+     * Publishes one fix. Must be called from a single thread.
+     */
+    void publish(Location location){
+        final long sequence = end;
+        final int slot = HEADER_SIZE + (int) (sequence % capacity) * SLOT_SIZE;
+        final long time = location.getTime();
+        final double lat = location.getLatitude();
+        final double lon = location.getLongitude();
+        final double alt = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+        final float acc = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+        final float spd = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+        final float brg = location.hasBearing() ? location.getBearing() : Float.NaN;
+        buffer.putLong(slot + SLOT_VERSION, 2 * sequence + 1);
+        storeFence();
+        buffer.putLong(slot + SLOT_TIME, time);
+        buffer.putDouble(slot + SLOT_LATITUDE, lat);
+        buffer.putDouble(slot + SLOT_LONGITUDE, lon);
+        buffer.putDouble(slot + SLOT_ALTITUDE, alt);
+        buffer.putFloat(slot + SLOT_ACCURACY, acc);
+        buffer.putFloat(slot + SLOT_SPEED, spd);
+        buffer.putFloat(slot + SLOT_BEARING, brg);
+        buffer.putInt(slot + SLOT_CHECKSUM, checksum(sequence, time, lat, lon, alt, acc, spd, brg));
+        storeFence();
+        buffer.putLong(slot + SLOT_VERSION, 2 * sequence + 2);
+        end = sequence + 1;
+        buffer.putLong(HEADER_END, end);
+        storeFence();
+    }
+
+    /**
+     * A cheap hash of a fix and its sequence, enough to tell a slot copied whole from one torn
+     * by the writer or left over from an earlier lap.
+     */
+    static int checksum(long sequence, long time, double lat, double lon, double alt,
+                        float acc, float spd, float brg){
+        int hash = 0x7f4a7c15;
+        hash = mix(hash, sequence);
+        hash = mix(hash, time);
+        hash = mix(hash, Double.doubleToRawLongBits(lat));
+        hash = mix(hash, Double.doubleToRawLongBits(lon));
+        hash = mix(hash, Double.doubleToRawLongBits(alt));
+        hash = (hash ^ Float.floatToRawIntBits(acc)) * 0x01000193;
+        hash = (hash ^ Float.floatToRawIntBits(spd)) * 0x01000193;
+        hash = (hash ^ Float.floatToRawIntBits(brg)) * 0x01000193;
+        return hash;
+    }
+
+    private static int mix(int hash, long value){
+        hash = (hash ^ (int) value) * 0x01000193;
+        return (hash ^ (int) (value >>> 32)) * 0x01000193;
+    }
+
+    long getEndSequence(){
+        return end;
+    }
+
+    /**
+     * Forces the ring to disk. The mapping itself stays valid until it is garbage collected.
+     */
+    @Override public void close(){
+        buffer.force();
+    }
+
+    static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * A place where the fixes dwelled within the stay radius for at least the minimum stay duration.
+ * {@link TripObserver#onStayDetected} reports it while it is still going on, and
+ * {@link TripObserver#onStayEnded} again once the fixes leave, with its departure time.
+ */
+public class Stay {
+    private final long arrivalTimeMs;
+    private final long detectedTimeMs;
+    private final long departureTimeMs;
+    private final double latitude;
+    private final double longitude;
+
+    Stay(long arrivalTimeMs, long detectedTimeMs, long departureTimeMs, double latitude, double longitude){
+        this.arrivalTimeMs = arrivalTimeMs;
+        this.detectedTimeMs = detectedTimeMs;
+        this.departureTimeMs = departureTimeMs;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * The time of the first fix within the stay.
+     */
+    public long getArrivalTimeMs() {
+        return arrivalTimeMs;
+    }
+
+    /**
+     * The time of the fix that completed the minimum stay duration.
+     */
+    public long getDetectedTimeMs() {
+        return detectedTimeMs;
+    }
+
+    /**
+     * The time of the last fix within the stay, or 0 if the fixes haven't left it yet.
+     */
+    public long getDepartureTimeMs() {
+        return departureTimeMs;
+    }
+
+    public boolean hasEnded() {
+        return departureTimeMs != 0;
+    }
+
+    /**
+     * The mean of the fixes within the stay, up to its detection or, once it has ended, up to
+     * its departure.
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override public String toString() {
+        return "Stay{" + arrivalTimeMs + ".." + departureTimeMs + " (" + latitude + ", " + longitude + ")}";
+    }
+}
@@ -0,0 +1,160 @@
+package com.johnnylambada.locationservice;
+
+import java.nio.MappedByteBuffer;
+
+/**
+ * Reads a range of a {@link TrackStore} in order without allocating per fix. Call
+ * {@link #next()} to advance; the getters then describe the current fix. Fixes that retention
+ * deletes while the cursor is open are skipped. Not thread safe.
+ *
+ * A bounding box cursor walks the candidate ranges from the store's index and skips the fixes
+ * in them that are outside the box.
+ *
+ * <pre>
+ * TrackCursor cursor = store.cursor(fromTimeMs, toTimeMs);
+ * while (cursor.next()) {
+ *     draw(cursor.getLatitude(), cursor.getLongitude());
+ * }
+ * </pre>
+ */
+public class TrackCursor {
+    private final TrackStore store;
+    // Consecutive from, to pairs of sequences to read.
+    private final long[] ranges;
+    private final long limit;
+    private int range;
+    private long endSequence;
+    private long nextSequence;
+
+    private final boolean bounded;
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+
+    private MappedByteBuffer buffer;
+    private long bufferSegment = -1;
+
+    private long sequence = -1;
+    private long timeMs;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private float accuracy;
+    private float speed;
+    private float bearing;
+
+    TrackCursor(TrackStore store, long fromSequence, long endSequence){
+        this.store = store;
+        this.ranges = null;
+        this.limit = endSequence;
+        this.nextSequence = fromSequence;
+        this.endSequence = endSequence;
+        this.bounded = false;
+        this.south = 0;
+        this.west = 0;
+        this.north = 0;
+        this.east = 0;
+    }
+
+    /**
+     * Reads the given ranges, up to {@code limit}, keeping only fixes inside the box.
+     */
+    TrackCursor(TrackStore store, long[] ranges, long limit,
+                double south, double west, double north, double east){
+        this.store = store;
+        this.ranges = ranges;
+        this.limit = limit;
+        this.bounded = true;
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+
+    /**
+     * Moves to the next fix. Returns false once the range is exhausted.
+     */
+    public boolean next(){
+        while (true) {
+            if (nextSequence >= endSequence) {
+                if (ranges == null || range >= ranges.length) {
+                    return false;
+                }
+                nextSequence = ranges[range++];
+                endSequence = Math.min(ranges[range++], limit);
+                continue;
+            }
+            final long segmentIndex = nextSequence / store.getRecordsPerSegment();
+            if (segmentIndex != bufferSegment) {
+                buffer = store.segment(segmentIndex);
+                bufferSegment = segmentIndex;
+            }
+            if (buffer == null) {
+                nextSequence = Math.max(nextSequence + 1, store.getFirstSequence());
+                continue;
+            }
+            final int offset = store.offset(nextSequence);
+            sequence = nextSequence++;
+            timeMs = buffer.getLong(offset + TrackStore.OFFSET_TIME);
+            latitude = buffer.getDouble(offset + TrackStore.OFFSET_LATITUDE);
+            longitude = buffer.getDouble(offset + TrackStore.OFFSET_LONGITUDE);
+            altitude = buffer.getDouble(offset + TrackStore.OFFSET_ALTITUDE);
+            accuracy = buffer.getFloat(offset + TrackStore.OFFSET_ACCURACY);
+            speed = buffer.getFloat(offset + TrackStore.OFFSET_SPEED);
+            bearing = buffer.getFloat(offset + TrackStore.OFFSET_BEARING);
+            if (bounded && (latitude < south || latitude > north
+                    || longitude < west || longitude > east)) {
+                continue;
+            }
+            return true;
+        }
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * UTC time of the fix in milliseconds since the epoch.
+     */
+    public long getTimeMs() {
+        return timeMs;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Altitude in meters, or NaN if the fix had none.
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    /**
+     * Accuracy in meters, or NaN if the fix had none.
+     */
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Speed in meters per second, or NaN if the fix had none.
+     */
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Bearing in degrees, or NaN if the fix had none.
+     */
+    public float getBearing() {
+        return bearing;
+    }
+}
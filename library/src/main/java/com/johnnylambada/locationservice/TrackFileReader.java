@@ -0,0 +1,91 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a track recorded by {@link TrackStore}, such as one pulled off a device, oldest segment
+ * first. Each segment is read up to its first missing or torn record.
+ */
+public final class TrackFileReader implements TrackReader {
+
+    private static final String PROVIDER = "track";
+
+    private final File[] segments;
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int offset;
+
+    /**
+     * @param directory the track directory, with its {@code .trk} segment files
+     */
+    public TrackFileReader(File directory) throws IOException {
+        final File[] files = directory.listFiles(
+                (dir, name) -> name.endsWith(TrackStore.SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new FileNotFoundException(directory.getPath());
+        }
+        // Segment names are fixed-width hex, so they sort oldest first.
+        Arrays.sort(files);
+        this.segments = files;
+    }
+
+    @Override
+    public Location read() throws IOException {
+        while (segment == null
+                || offset + TrackStore.RECORD_SIZE > segment.capacity()
+                || !TrackStore.isValid(segment, offset)) {
+            if (++segmentIndex >= segments.length) {
+                segment = null;
+                return null;
+            }
+            segment = map(segments[segmentIndex]);
+            offset = 0;
+        }
+        final Location location = new Location(PROVIDER);
+        location.setTime(segment.getLong(offset + TrackStore.OFFSET_TIME));
+        location.setLatitude(segment.getDouble(offset + TrackStore.OFFSET_LATITUDE));
+        location.setLongitude(segment.getDouble(offset + TrackStore.OFFSET_LONGITUDE));
+        final double altitude = segment.getDouble(offset + TrackStore.OFFSET_ALTITUDE);
+        if (!Double.isNaN(altitude)) {
+            location.setAltitude(altitude);
+        }
+        final float accuracy = segment.getFloat(offset + TrackStore.OFFSET_ACCURACY);
+        if (!Float.isNaN(accuracy)) {
+            location.setAccuracy(accuracy);
+        }
+        final float speed = segment.getFloat(offset + TrackStore.OFFSET_SPEED);
+        if (!Float.isNaN(speed)) {
+            location.setSpeed(speed);
+        }
+        final float bearing = segment.getFloat(offset + TrackStore.OFFSET_BEARING);
+        if (!Float.isNaN(bearing)) {
+            location.setBearing(bearing);
+        }
+        offset += TrackStore.RECORD_SIZE;
+        return location;
+    }
+
+    @Override
+    public void close(){
+        segment = null;
+        segmentIndex = segments.length;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.johnnylambada.locationservice;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * In-memory index over a {@link TrackStore}, kept up to date by its writer thread.
+ *
+ * Records are grouped into blocks of {@link #BLOCK_SIZE} consecutive sequences. For each block
+ * the index keeps the time of its first record, a sparse time index that narrows a time lookup
+ * to one block, and the bounding box of its records. It also maps every grid cell of
+ * {@link #CELL_SIZE_DEG} degrees that the track passed through to the blocks that visited it, so
+ * a bounding box query only reads blocks that have fixes near the box.
+ *
+ * Blocks are addressed by {@code sequence / BLOCK_SIZE} and dropped as retention deletes
+ * segments. A month at 1 Hz is about 10,000 blocks, well under a megabyte of index.
+ */
+class TrackIndex {
+
+    static final int BLOCK_SHIFT = 8;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /**
+     * About 1.1 km of latitude.
+     */
+    static final double CELL_SIZE_DEG = 0.01;
+
+    private static final int INITIAL_BLOCKS = 64;
+
+    // Blocks firstBlock up to firstBlock + blockCount, oldest first.
+    private long firstBlock;
+    private int blockCount;
+    private long[] startTimeMs = new long[INITIAL_BLOCKS];
+    private double[] minLatitude = new double[INITIAL_BLOCKS];
+    private double[] maxLatitude = new double[INITIAL_BLOCKS];
+    private double[] minLongitude = new double[INITIAL_BLOCKS];
+    private double[] maxLongitude = new double[INITIAL_BLOCKS];
+
+    private final HashMap<Long, BlockList> cells = new HashMap<>();
+    private long lastCell = Long.MIN_VALUE;
+    private long lastCellBlock = -1;
+
+    /**
+     * Adds the record with the given sequence. Records must be added in sequence order.
+     */
+    synchronized void add(long sequence, long timeMs, double latitude, double longitude){
+        final long block = sequence >>> BLOCK_SHIFT;
+        if (blockCount == 0) {
+            firstBlock = block;
+        }
+        int index = (int) (block - firstBlock);
+        while (blockCount <= index) {
+            startBlock(timeMs);
+        }
+        minLatitude[index] = Math.min(minLatitude[index], latitude);
+        maxLatitude[index] = Math.max(maxLatitude[index], latitude);
+        minLongitude[index] = Math.min(minLongitude[index], longitude);
+        maxLongitude[index] = Math.max(maxLongitude[index], longitude);
+
+        final long cell = cell(latitude, longitude);
+        if (cell != lastCell || block != lastCellBlock) {
+            BlockList blocks = cells.get(cell);
+            if (blocks == null) {
+                blocks = new BlockList();
+                cells.put(cell, blocks);
+            }
+            blocks.add(block);
+            lastCell = cell;
+            lastCellBlock = block;
+        }
+    }
+
+    private void startBlock(long timeMs){
+        if (blockCount == startTimeMs.length) {
+            final int capacity = blockCount * 2;
+            startTimeMs = Arrays.copyOf(startTimeMs, capacity);
+            minLatitude = Arrays.copyOf(minLatitude, capacity);
+            maxLatitude = Arrays.copyOf(maxLatitude, capacity);
+            minLongitude = Arrays.copyOf(minLongitude, capacity);
+            maxLongitude = Arrays.copyOf(maxLongitude, capacity);
+        }
+        startTimeMs[blockCount] = timeMs;
+        minLatitude[blockCount] = Double.POSITIVE_INFINITY;
+        maxLatitude[blockCount] = Double.NEGATIVE_INFINITY;
+        minLongitude[blockCount] = Double.POSITIVE_INFINITY;
+        maxLongitude[blockCount] = Double.NEGATIVE_INFINITY;
+        blockCount++;
+    }
+
+    /**
+     * Forgets the blocks that lie entirely before the given sequence.
+     */
+    synchronized void retain(long firstSequence){
+        final long keep = firstSequence >>> BLOCK_SHIFT;
+        final int drop = (int) Math.min(blockCount, Math.max(0, keep - firstBlock));
+        if (drop == 0) {
+            return;
+        }
+        final int remaining = blockCount - drop;
+        System.arraycopy(startTimeMs, drop, startTimeMs, 0, remaining);
+        System.arraycopy(minLatitude, drop, minLatitude, 0, remaining);
+        System.arraycopy(maxLatitude, drop, maxLatitude, 0, remaining);
+        System.arraycopy(minLongitude, drop, minLongitude, 0, remaining);
+        System.arraycopy(maxLongitude, drop, maxLongitude, 0, remaining);
+        firstBlock += drop;
+        blockCount = remaining;
+        for (Iterator<BlockList> it = cells.values().iterator(); it.hasNext(); ) {
+            if (it.next().removeBefore(firstBlock)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the first sequence that {@link TrackStore#sequenceAtOrAfter(long)} has to search
+     * from: the start of the last block that begins before the given time.
+     */
+    synchronized long searchFrom(long timeMs){
+        final int index = lastBlockBefore(timeMs);
+        return (firstBlock + Math.max(index, 0)) << BLOCK_SHIFT;
+    }
+
+    /**
+     * Returns the last sequence, inclusive, that {@link TrackStore#sequenceAtOrAfter(long)} has
+     * to search up to: the start of the first block that begins at or after the given time, or
+     * Long.MAX_VALUE if there is none.
+     */
+    synchronized long searchTo(long timeMs){
+        final int index = lastBlockBefore(timeMs) + 1;
+        return index < blockCount ? (firstBlock + index) << BLOCK_SHIFT : Long.MAX_VALUE;
+    }
+
+    private int lastBlockBefore(long timeMs){
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (startTimeMs[mid] < timeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Returns the sequence ranges that may hold fixes inside the box, as consecutive
+     * {@code from, to} pairs in sequence order. {@code west} must not be greater than
+     * {@code east}.
+     */
+    synchronized long[] ranges(double south, double west, double north, double east){
+        final long southCell = (long) Math.floor((south + 90) / CELL_SIZE_DEG);
+        final long northCell = (long) Math.floor((north + 90) / CELL_SIZE_DEG);
+        final long westCell = (long) Math.floor((west + 180) / CELL_SIZE_DEG);
+        final long eastCell = (long) Math.floor((east + 180) / CELL_SIZE_DEG);
+        final double boxCells = (double) (northCell - southCell + 1) * (eastCell - westCell + 1);
+
+        final boolean[] candidate = new boolean[blockCount];
+        if (boxCells <= cells.size()) {
+            for (long latCell = southCell; latCell <= northCell; latCell++) {
+                for (long lonCell = westCell; lonCell <= eastCell; lonCell++) {
+                    mark(cells.get((latCell << 32) | lonCell), candidate);
+                }
+            }
+        } else {
+            // A large box: cheaper to test every visited cell than every cell in the box.
+            for (Map.Entry<Long, BlockList> entry : cells.entrySet()) {
+                final long latCell = entry.getKey() >>> 32;
+                final long lonCell = entry.getKey() & 0xffffffffL;
+                if (latCell >= southCell && latCell <= northCell
+                        && lonCell >= westCell && lonCell <= eastCell) {
+                    mark(entry.getValue(), candidate);
+                }
+            }
+        }
+
+        long[] ranges = new long[16];
+        int size = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (!candidate[i]
+                    || minLatitude[i] > north || maxLatitude[i] < south
+                    || minLongitude[i] > east || maxLongitude[i] < west) {
+                continue;
+            }
+            final long from = (firstBlock + i) << BLOCK_SHIFT;
+            if (size > 0 && ranges[size - 1] == from) {
+                ranges[size - 1] = from + BLOCK_SIZE;
+                continue;
+            }
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, size * 2);
+            }
+            ranges[size++] = from;
+            ranges[size++] = from + BLOCK_SIZE;
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    private void mark(BlockList blocks, boolean[] candidate){
+        if (blocks == null) {
+            return;
+        }
+        for (int i = 0; i < blocks.size; i++) {
+            final long index = blocks.blocks[i] - firstBlock;
+            if (index >= 0 && index < candidate.length) {
+                candidate[(int) index] = true;
+            }
+        }
+    }
+
+    private static long cell(double latitude, double longitude){
+        final long latCell = (long) Math.floor((latitude + 90) / CELL_SIZE_DEG);
+        final long lonCell = (long) Math.floor((longitude + 180) / CELL_SIZE_DEG);
+        return (latCell << 32) | lonCell;
+    }
+
+    /**
+     * The blocks that visited one cell, in increasing order.
+     */
+    private static final class BlockList {
+        private long[] blocks = new long[4];
+        private int size;
+
+        void add(long block){
+            if (size > 0 && blocks[size - 1] == block) {
+                return;
+            }
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+            }
+            blocks[size++] = block;
+        }
+
+        /**
+         * Removes blocks before the given one and returns true if none are left.
+         */
+        boolean removeBefore(long block){
+            int drop = 0;
+            while (drop < size && blocks[drop] < block) {
+                drop++;
+            }
+            System.arraycopy(blocks, drop, blocks, 0, size - drop);
+            size -= drop;
+            return size == 0;
+        }
+    }
+}
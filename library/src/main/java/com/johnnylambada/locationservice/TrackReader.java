@@ -0,0 +1,18 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a recorded track one fix at a time, oldest first, for a {@link ReplayLocationSource}.
+ * {@link GpxTrackReader}, {@link NmeaTrackReader} and {@link TrackFileReader} read the common
+ * formats.
+ */
+public interface TrackReader extends Closeable {
+    /**
+     * Returns the next fix, or null at the end of the track.
+     */
+    Location read() throws IOException;
+}
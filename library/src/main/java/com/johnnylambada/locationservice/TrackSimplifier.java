@@ -0,0 +1,132 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Online track simplification with an opening window.
+ *
+ * The last kept fix is the anchor. Each new fix is tested as the end of a segment from the anchor:
+ * if every fix seen since the anchor lies within the tolerance of that segment, the previous fix
+ * is redundant and only the new one is remembered. Otherwise the previous fix is a corner; it is
+ * kept and becomes the new anchor. A straight run of fixes collapses to its two ends.
+ *
+ * The window holds at most {@code maxPoints} fixes and {@code maxLatencyMs} of time; when either
+ * fills up the previous fix is kept regardless, so memory, per-fix work and the delay before a fix
+ * is kept are all bounded. Points are projected onto a local plane around the anchor, which is
+ * accurate for the short segments involved. Allocates nothing after construction and isn't thread
+ * safe.
+ */
+class TrackSimplifier {
+
+    static final int KEEP_NONE = 0;
+    static final int KEEP_CURRENT = 1;
+    static final int KEEP_PREVIOUS = 2;
+
+    private final double toleranceM;
+    private final long maxLatencyMs;
+
+    // The fixes since the anchor, in meters east and north of it.
+    private final double[] x;
+    private final double[] y;
+    private int count;
+
+    private boolean hasAnchor;
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTimeMs;
+    private double anchorCosLat;
+
+    // The newest fix, which becomes the anchor if the next one turns it into a corner.
+    private double previousLat;
+    private double previousLon;
+    private long previousTimeMs;
+
+    TrackSimplifier(double toleranceM, int maxPoints, long maxLatencyMs){
+        if (toleranceM<=0){
+            throw new IllegalArgumentException("toleranceM must be positive");
+        }
+        if (maxPoints<2){
+            throw new IllegalArgumentException("maxPoints must be at least 2");
+        }
+        this.toleranceM = toleranceM;
+        this.maxLatencyMs = maxLatencyMs;
+        this.x = new double[maxPoints];
+        this.y = new double[maxPoints];
+    }
+
+    /**
+     * Feeds the next fix.
+     *
+     * @return {@link #KEEP_NONE} if nothing is kept yet, {@link #KEEP_CURRENT} if this is the first
+     *         fix and is kept at once, or {@link #KEEP_PREVIOUS} if the fix passed in the previous
+     *         call turned out to be a corner and is kept.
+     */
+    int add(long timeMs, double lat, double lon){
+        if (!hasAnchor) {
+            setAnchor(timeMs, lat, lon);
+            previousTimeMs = timeMs;
+            previousLat = lat;
+            previousLon = lon;
+            return KEEP_CURRENT;
+        }
+        final double px = Math.toRadians(GeoMath.wrapLongitudeDelta(lon - anchorLon)) * anchorCosLat * GeoMath.EARTH_RADIUS_M;
+        final double py = Math.toRadians(lat - anchorLat) * GeoMath.EARTH_RADIUS_M;
+
+        boolean corner = count == x.length || timeMs - anchorTimeMs > maxLatencyMs;
+        for (int i = 0; i < count && !corner; i++) {
+            corner = distanceToSegment(x[i], y[i], px, py) > toleranceM;
+        }
+
+        int result = KEEP_NONE;
+        if (corner && count > 0) {
+            // The previous fix becomes the anchor and the window restarts from it.
+            setAnchor(previousTimeMs, previousLat, previousLon);
+            result = KEEP_PREVIOUS;
+            x[0] = Math.toRadians(GeoMath.wrapLongitudeDelta(lon - anchorLon)) * anchorCosLat * GeoMath.EARTH_RADIUS_M;
+            y[0] = Math.toRadians(lat - anchorLat) * GeoMath.EARTH_RADIUS_M;
+            count = 1;
+        } else {
+            x[count] = px;
+            y[count] = py;
+            count++;
+        }
+        previousTimeMs = timeMs;
+        previousLat = lat;
+        previousLon = lon;
+        return result;
+    }
+
+    /**
+     * Keeps the newest fix now rather than waiting for the next one to decide, for when no
+     * more fixes may come, and makes it the anchor.
+     *
+     * @return true if the fix passed in the last call to {@link #add} wasn't kept yet and is
+     *         kept now, false if there is nothing to keep
+     */
+    boolean flush(){
+        if (!hasAnchor || count == 0) {
+            return false;
+        }
+        setAnchor(previousTimeMs, previousLat, previousLon);
+        return true;
+    }
+
+    private void setAnchor(long timeMs, double lat, double lon){
+        hasAnchor = true;
+        anchorTimeMs = timeMs;
+        anchorLat = lat;
+        anchorLon = lon;
+        anchorCosLat = Math.cos(Math.toRadians(lat));
+        count = 0;
+    }
+
+    /**
+     * Distance from (bx, by) to the segment from the origin to (px, py).
+     */
+    private static double distanceToSegment(double bx, double by, double px, double py){
+        final double lengthSquared = px * px + py * py;
+        double t = lengthSquared == 0 ? 0 : (bx * px + by * py) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        final double dx = bx - t * px;
+        final double dy = by - t * py;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,565 @@
+package com.johnnylambada.locationservice;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only history of every fix, stored as fixed-width binary records in memory-mapped segment
+ * files.
+ *
+ * The service {@link #append appends} on its worker thread, which only copies the fix's fields
+ * into a preallocated staging ring. A dedicated writer thread moves staged records into the
+ * mapped segment, so the callback never touches the file system. Records are addressed by a
+ * sequence number that keeps growing across segments; segment {@code n} holds sequences
+ * {@code n * recordsPerSegment} up to the next segment's first.
+ *
+ * Every record ends with a checksum. On open the writer scans the newest segment and resumes
+ * after its last valid record, so a record torn by a crash is simply overwritten. Once there are
+ * more than {@code maxSegments} segments the oldest is deleted.
+ *
+ * Times must increase; a fix that is not newer than the last appended one is dropped. This keeps
+ * records sorted by time, which {@link #sequenceAtOrAfter(long)} relies on.
+ *
+ * The writer also maintains a {@link TrackIndex} in memory, rebuilt from the segments on open,
+ * so time lookups only search one block of records and bounding box queries only read blocks
+ * that passed near the box.
+ */
+public class TrackStore implements Closeable {
+
+    private static final String TAG = "TrackStore";
+
+    static final int OFFSET_TIME = 0;
+    static final int OFFSET_LATITUDE = 8;
+    static final int OFFSET_LONGITUDE = 16;
+    static final int OFFSET_ALTITUDE = 24;
+    static final int OFFSET_ACCURACY = 32;
+    static final int OFFSET_SPEED = 36;
+    static final int OFFSET_BEARING = 40;
+    static final int OFFSET_CHECKSUM = 44;
+    static final int RECORD_SIZE = 48;
+
+    static final String SEGMENT_SUFFIX = ".trk";
+
+    /**
+     * Number of fixes that can be staged while the writer catches up.
+     */
+    private static final int STAGING_CAPACITY = 1024;
+
+    private static final long WRITER_PARK_NS = 100_000_000L; // 100 ms
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+
+    // Staging ring, written by the appending thread and drained by the writer thread.
+    private final long[] stagedTime = new long[STAGING_CAPACITY];
+    private final double[] stagedLatitude = new double[STAGING_CAPACITY];
+    private final double[] stagedLongitude = new double[STAGING_CAPACITY];
+    private final double[] stagedAltitude = new double[STAGING_CAPACITY];
+    private final float[] stagedAccuracy = new float[STAGING_CAPACITY];
+    private final float[] stagedSpeed = new float[STAGING_CAPACITY];
+    private final float[] stagedBearing = new float[STAGING_CAPACITY];
+    private final AtomicLong stagedHead = new AtomicLong();
+    private final AtomicLong stagedTail = new AtomicLong();
+    private long lastAppendedTimeMs = Long.MIN_VALUE;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Segments mapped for reading, by segment index. The writer's segment is always present.
+    private final ConcurrentHashMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    private final TrackIndex index = new TrackIndex();
+
+    // Only touched by the writer thread.
+    private MappedByteBuffer writeSegment;
+    private long writeSegmentIndex;
+    private long lastWrittenTimeMs = Long.MIN_VALUE;
+
+    private volatile long firstSequence;
+    private volatile long endSequence;
+    private volatile boolean recovered;
+    private volatile boolean closed;
+
+    private final Thread writer;
+
+    private TrackStore(File directory, int recordsPerSegment, int maxSegments){
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+        this.writer = new Thread(this::runWriter, TAG);
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the store in the given directory. Recovery of an existing track runs on the writer
+     * thread, so this returns immediately; fixes appended meanwhile are staged.
+     */
+    static TrackStore open(File directory, int recordsPerSegment, int maxSegments){
+        if (recordsPerSegment<=0){
+            throw new IllegalArgumentException("recordsPerSegment must be positive");
+        }
+        if (maxSegments<=0){
+            throw new IllegalArgumentException("maxSegments must be positive");
+        }
+        final TrackStore store = new TrackStore(directory, recordsPerSegment, maxSegments);
+        store.writer.start();
+        return store;
+    }
+
+    // region writing
+    void append(Location location){
+        append(
+                location.getTime(),
+                location.getLatitude(),
+                location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN
+        );
+    }
+
+    /**
+     * Stages one fix for the writer. Must be called from a single thread. Never blocks or
+     * allocates; if the writer has fallen a whole staging ring behind the fix is dropped.
+     */
+    void append(long timeMs, double latitude, double longitude, double altitude,
+                float accuracy, float speed, float bearing){
+        if (closed || timeMs<=lastAppendedTimeMs){
+            return;
+        }
+        final long tail = stagedTail.get();
+        if (tail - stagedHead.get() >= STAGING_CAPACITY){
+            dropped.incrementAndGet();
+            return;
+        }
+        lastAppendedTimeMs = timeMs;
+        final int slot = (int) (tail % STAGING_CAPACITY);
+        stagedTime[slot] = timeMs;
+        stagedLatitude[slot] = latitude;
+        stagedLongitude[slot] = longitude;
+        stagedAltitude[slot] = altitude;
+        stagedAccuracy[slot] = accuracy;
+        stagedSpeed[slot] = speed;
+        stagedBearing[slot] = bearing;
+        stagedTail.lazySet(tail + 1);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * The number of fixes dropped because the writer fell behind.
+     */
+    public long getDroppedCount(){
+        return dropped.get();
+    }
+
+    /**
+     * Stops the writer after it has written everything staged and forces the segments to disk.
+     */
+    @Override public void close(){
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter(){
+        try {
+            recover();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open track in " + directory, e);
+            closed = true;
+            return;
+        }
+        while (true) {
+            final boolean closing = closed;
+            try {
+                drain();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write track", e);
+                closed = true;
+                return;
+            }
+            if (closing) {
+                break;
+            }
+            if (stagedHead.get()==stagedTail.get()) {
+                LockSupport.parkNanos(this, WRITER_PARK_NS);
+            }
+        }
+        writeSegment.force();
+    }
+
+    private void drain() throws IOException {
+        long head = stagedHead.get();
+        final long tail = stagedTail.get();
+        while (head < tail) {
+            final int slot = (int) (head % STAGING_CAPACITY);
+            write(stagedTime[slot], stagedLatitude[slot], stagedLongitude[slot],
+                    stagedAltitude[slot], stagedAccuracy[slot], stagedSpeed[slot],
+                    stagedBearing[slot]);
+            head++;
+            stagedHead.lazySet(head);
+        }
+    }
+
+    private void write(long timeMs, double latitude, double longitude, double altitude,
+                       float accuracy, float speed, float bearing) throws IOException {
+        if (timeMs<=lastWrittenTimeMs) {
+            // Older than what the recovered track ends with.
+            return;
+        }
+        long sequence = endSequence;
+        if (sequence / recordsPerSegment != writeSegmentIndex) {
+            rollover(sequence / recordsPerSegment);
+        }
+        encode(writeSegment, offset(sequence), timeMs, latitude, longitude, altitude,
+                accuracy, speed, bearing);
+        index.add(sequence, timeMs, latitude, longitude);
+        lastWrittenTimeMs = timeMs;
+        // Publishes the record to readers.
+        endSequence = sequence + 1;
+    }
+
+    private void rollover(long segmentIndex) throws IOException {
+        if (writeSegment != null) {
+            writeSegment.force();
+        }
+        writeSegmentIndex = segmentIndex;
+        writeSegment = map(segmentIndex, true);
+        segments.put(segmentIndex, writeSegment);
+        final long oldestKept = segmentIndex - maxSegments + 1;
+        if (oldestKept * recordsPerSegment > firstSequence) {
+            firstSequence = oldestKept * recordsPerSegment;
+            index.retain(firstSequence);
+        }
+        for (File file : listSegments()) {
+            final long index = segmentIndex(file);
+            if (index < oldestKept) {
+                segments.remove(index);
+                if (!file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the existing track. Everything in the newest segment up to the first
+     * record whose checksum doesn't match is kept; the rest is overwritten by new fixes.
+     */
+    private void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final File[] files = listSegments();
+        if (files.length == 0) {
+            writeSegmentIndex = 0;
+            writeSegment = map(0, true);
+            segments.put(0L, writeSegment);
+            recovered = true;
+            return;
+        }
+        final long oldest = segmentIndex(files[0]);
+        final long newest = segmentIndex(files[files.length - 1]);
+        writeSegmentIndex = newest;
+        writeSegment = map(newest, true);
+        segments.put(newest, writeSegment);
+        int count = 0;
+        while (count < recordsPerSegment && isValid(writeSegment, count * RECORD_SIZE)) {
+            count++;
+        }
+        if (count > 0) {
+            lastWrittenTimeMs = writeSegment.getLong((count - 1) * RECORD_SIZE + OFFSET_TIME);
+        } else if (newest > oldest) {
+            final MappedByteBuffer previous = segment(newest - 1);
+            if (previous != null) {
+                lastWrittenTimeMs = previous.getLong((recordsPerSegment - 1) * RECORD_SIZE + OFFSET_TIME);
+            }
+        }
+        final long first = oldest * recordsPerSegment;
+        final long end = newest * recordsPerSegment + count;
+        rebuildIndex(first, end);
+        firstSequence = first;
+        endSequence = end;
+        recovered = true;
+        Log.i(TAG, "Recovered " + (endSequence - firstSequence) + " fixes from " + files.length + " segments");
+    }
+
+    private void rebuildIndex(long first, long end){
+        long sequence = first;
+        while (sequence < end) {
+            final MappedByteBuffer buffer = segment(sequence / recordsPerSegment);
+            if (buffer == null) {
+                // A segment file is missing; index what follows it.
+                sequence = (sequence / recordsPerSegment + 1) * recordsPerSegment;
+                continue;
+            }
+            final int offset = offset(sequence);
+            index.add(sequence,
+                    buffer.getLong(offset + OFFSET_TIME),
+                    buffer.getDouble(offset + OFFSET_LATITUDE),
+                    buffer.getDouble(offset + OFFSET_LONGITUDE));
+            sequence++;
+        }
+    }
+    // endregion
+
+    // region reading
+    /**
+     * True once an existing track has been recovered and the read API reflects it.
+     */
+    public boolean isOpen(){
+        return recovered && !closed;
+    }
+
+    /**
+     * The sequence of the oldest retained fix.
+     */
+    public long getFirstSequence(){
+        return firstSequence;
+    }
+
+    /**
+     * One past the sequence of the newest written fix.
+     */
+    public long getEndSequence(){
+        return endSequence;
+    }
+
+    /**
+     * Returns the sequence of the first fix at or after the given time, or
+     * {@link #getEndSequence()} if there is none. The index narrows the search to one block,
+     * which is then binary searched.
+     */
+    public long sequenceAtOrAfter(long timeMs){
+        long low = Math.max(firstSequence, index.searchFrom(timeMs));
+        long high = Math.min(endSequence, index.searchTo(timeMs));
+        while (low < high) {
+            final long mid = (low + high) >>> 1;
+            final MappedByteBuffer buffer = segment(mid / recordsPerSegment);
+            if (buffer == null) {
+                // Deleted by retention while searching, or unreadable.
+                low = Math.max(mid + 1, firstSequence);
+                high = Math.max(low, high);
+                continue;
+            }
+            if (buffer.getLong(offset(mid) + OFFSET_TIME) < timeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a cursor over every fix from the given sequence to the end of the track as of now.
+     */
+    public TrackCursor cursor(long fromSequence){
+        return new TrackCursor(this, Math.max(fromSequence, firstSequence), endSequence);
+    }
+
+    /**
+     * Returns a cursor over the fixes with {@code fromTimeMs <= time < toTimeMs}.
+     */
+    public TrackCursor cursor(long fromTimeMs, long toTimeMs){
+        return new TrackCursor(this, sequenceAtOrAfter(fromTimeMs), sequenceAtOrAfter(toTimeMs));
+    }
+
+    /**
+     * Returns a cursor over the fixes inside the given bounding box, in time order. The box must
+     * not cross the antimeridian.
+     */
+    public TrackCursor cursor(double south, double west, double north, double east){
+        if (south > north){
+            throw new IllegalArgumentException("south can't be greater than north");
+        }
+        if (west > east){
+            throw new IllegalArgumentException("west can't be greater than east");
+        }
+        final long end = endSequence;
+        return new TrackCursor(this, index.ranges(south, west, north, east), end,
+                south, west, north, east);
+    }
+
+    /**
+     * Returns the position at the given time, linearly interpolated between the fixes around it,
+     * or null if the time is outside the track. Altitude and speed are interpolated as well;
+     * accuracy is the worse of the two fixes and bearing is the nearer fix's.
+     */
+    public Location positionAt(long timeMs){
+        final long after = sequenceAtOrAfter(timeMs);
+        final TrackCursor cursor = cursor(Math.max(after - 1, firstSequence));
+        if (!cursor.next()) {
+            return null;
+        }
+        if (cursor.getSequence() == after) {
+            return cursor.getTimeMs() == timeMs ? toLocation(cursor) : null;
+        }
+        final long beforeTimeMs = cursor.getTimeMs();
+        final double beforeLatitude = cursor.getLatitude();
+        final double beforeLongitude = cursor.getLongitude();
+        final double beforeAltitude = cursor.getAltitude();
+        final float beforeAccuracy = cursor.getAccuracy();
+        final float beforeSpeed = cursor.getSpeed();
+        final float beforeBearing = cursor.getBearing();
+        if (!cursor.next()) {
+            return null;
+        }
+        final double fraction = (double) (timeMs - beforeTimeMs) / (cursor.getTimeMs() - beforeTimeMs);
+        final double longitude = GeoMath.wrapLongitudeDelta(beforeLongitude
+                + fraction * GeoMath.wrapLongitudeDelta(cursor.getLongitude() - beforeLongitude));
+        final Location location = new Location(TAG);
+        location.setTime(timeMs);
+        location.setLatitude(beforeLatitude + fraction * (cursor.getLatitude() - beforeLatitude));
+        location.setLongitude(longitude);
+        final double altitude = beforeAltitude + fraction * (cursor.getAltitude() - beforeAltitude);
+        if (!Double.isNaN(altitude)) {
+            location.setAltitude(altitude);
+        }
+        final float accuracy = Math.max(beforeAccuracy, cursor.getAccuracy());
+        if (!Float.isNaN(accuracy)) {
+            location.setAccuracy(accuracy);
+        }
+        final float speed = (float) (beforeSpeed + fraction * (cursor.getSpeed() - beforeSpeed));
+        if (!Float.isNaN(speed)) {
+            location.setSpeed(speed);
+        }
+        final float bearing = fraction < 0.5 ? beforeBearing : cursor.getBearing();
+        if (!Float.isNaN(bearing)) {
+            location.setBearing(bearing);
+        }
+        return location;
+    }
+
+    private static Location toLocation(TrackCursor cursor){
+        final Location location = new Location(TAG);
+        location.setTime(cursor.getTimeMs());
+        location.setLatitude(cursor.getLatitude());
+        location.setLongitude(cursor.getLongitude());
+        if (!Double.isNaN(cursor.getAltitude())) {
+            location.setAltitude(cursor.getAltitude());
+        }
+        if (!Float.isNaN(cursor.getAccuracy())) {
+            location.setAccuracy(cursor.getAccuracy());
+        }
+        if (!Float.isNaN(cursor.getSpeed())) {
+            location.setSpeed(cursor.getSpeed());
+        }
+        if (!Float.isNaN(cursor.getBearing())) {
+            location.setBearing(cursor.getBearing());
+        }
+        return location;
+    }
+
+    int getRecordsPerSegment(){
+        return recordsPerSegment;
+    }
+
+    int offset(long sequence){
+        return (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    /**
+     * Returns the mapped segment holding the given segment index, or null if it was deleted.
+     */
+    MappedByteBuffer segment(long segmentIndex){
+        MappedByteBuffer buffer = segments.get(segmentIndex);
+        if (buffer != null) {
+            return buffer;
+        }
+        if (segmentIndex * recordsPerSegment < firstSequence) {
+            return null;
+        }
+        try {
+            buffer = map(segmentIndex, false);
+        } catch (IOException e) {
+            return null;
+        }
+        final MappedByteBuffer existing = segments.putIfAbsent(segmentIndex, buffer);
+        return existing != null ? existing : buffer;
+    }
+    // endregion
+
+    // region files
+    private MappedByteBuffer map(long segmentIndex, boolean writable) throws IOException {
+        final File file = new File(directory, String.format(Locale.US, "%016x%s", segmentIndex, SEGMENT_SUFFIX));
+        final long size = (long) recordsPerSegment * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+             FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0,
+                    size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private File[] listSegments(){
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long segmentIndex(File file){
+        final String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+    }
+    // endregion
+
+    // region record format
+    /**
+     * Writes one record at the given offset. The buffer must be little endian.
+     */
+    static void encode(ByteBuffer buffer, int offset, long timeMs, double latitude,
+                       double longitude, double altitude, float accuracy, float speed,
+                       float bearing){
+        buffer.putLong(offset + OFFSET_TIME, timeMs);
+        buffer.putDouble(offset + OFFSET_LATITUDE, latitude);
+        buffer.putDouble(offset + OFFSET_LONGITUDE, longitude);
+        buffer.putDouble(offset + OFFSET_ALTITUDE, altitude);
+        buffer.putFloat(offset + OFFSET_ACCURACY, accuracy);
+        buffer.putFloat(offset + OFFSET_SPEED, speed);
+        buffer.putFloat(offset + OFFSET_BEARING, bearing);
+        buffer.putInt(offset + OFFSET_CHECKSUM, checksum(buffer, offset));
+    }
+
+    static boolean isValid(ByteBuffer buffer, int offset){
+        return buffer.getLong(offset + OFFSET_TIME) != 0
+                && buffer.getInt(offset + OFFSET_CHECKSUM) == checksum(buffer, offset);
+    }
+
+    /**
+     * A cheap hash of the record's fields, enough to tell a completely written record from a
+     * torn or zeroed one.
+     */
+    static int checksum(ByteBuffer buffer, int offset){
+        int hash = 0x7f4a7c15;
+        for (int i = 0; i < OFFSET_CHECKSUM; i += 4) {
+            hash = (hash ^ buffer.getInt(offset + i)) * 0x01000193;
+        }
+        return hash;
+    }
+    // endregion
+}
@@ -0,0 +1,79 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * A summary of the movement between two stays.
+ */
+public class Trip {
+    private final long startTimeMs;
+    private final double startLatitude;
+    private final double startLongitude;
+    private final long endTimeMs;
+    private final double endLatitude;
+    private final double endLongitude;
+    private final double distanceM;
+    private final int fixCount;
+
+    Trip(long startTimeMs, double startLatitude, double startLongitude,
+         long endTimeMs, double endLatitude, double endLongitude,
+         double distanceM, int fixCount){
+        this.startTimeMs = startTimeMs;
+        this.startLatitude = startLatitude;
+        this.startLongitude = startLongitude;
+        this.endTimeMs = endTimeMs;
+        this.endLatitude = endLatitude;
+        this.endLongitude = endLongitude;
+        this.distanceM = distanceM;
+        this.fixCount = fixCount;
+    }
+
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    public double getStartLatitude() {
+        return startLatitude;
+    }
+
+    public double getStartLongitude() {
+        return startLongitude;
+    }
+
+    /**
+     * The time the fixes arrived at the stay that ended the trip.
+     */
+    public long getEndTimeMs() {
+        return endTimeMs;
+    }
+
+    /**
+     * The center of the stay that ended the trip.
+     */
+    public double getEndLatitude() {
+        return endLatitude;
+    }
+
+    public double getEndLongitude() {
+        return endLongitude;
+    }
+
+    public long getDurationMs() {
+        return endTimeMs - startTimeMs;
+    }
+
+    /**
+     * The length of the path travelled, summed fix to fix.
+     */
+    public double getDistanceM() {
+        return distanceM;
+    }
+
+    public int getFixCount() {
+        return fixCount;
+    }
+
+    @Override public String toString() {
+        return "Trip{" + startTimeMs + " (" + startLatitude + ", " + startLongitude + ")"
+                + " -> " + endTimeMs + " (" + endLatitude + ", " + endLongitude + ")"
+                + ", " + distanceM + " m, " + fixCount + " fixes}";
+    }
+}
@@ -0,0 +1,75 @@
+package com.johnnylambada.locationservice;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans the {@link TripSegmenter}'s events out to the registered {@link TripObserver}s, each on
+ * its own executor. Kept in a copy-on-write list like {@link LocationDispatcher}.
+ */
+class TripDispatcher implements TripObserver {
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    void addObserver(TripObserver observer, Executor executor){
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        if (executor==null){
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        synchronized (registrations) {
+            for (Registration existing : registrations) {
+                if (existing.observer==observer) {
+                    return;
+                }
+            }
+            registrations.add(new Registration(observer, executor));
+        }
+    }
+
+    void removeObserver(TripObserver observer){
+        synchronized (registrations) {
+            for (Registration registration : registrations) {
+                if (registration.observer==observer) {
+                    registrations.remove(registration);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override public void onTripStarted(long timeMs, double latitude, double longitude) {
+        for (Registration registration : registrations) {
+            registration.executor.execute(() -> registration.observer.onTripStarted(timeMs, latitude, longitude));
+        }
+    }
+
+    @Override public void onTripEnded(Trip trip) {
+        for (Registration registration : registrations) {
+            registration.executor.execute(() -> registration.observer.onTripEnded(trip));
+        }
+    }
+
+    @Override public void onStayDetected(Stay stay) {
+        for (Registration registration : registrations) {
+            registration.executor.execute(() -> registration.observer.onStayDetected(stay));
+        }
+    }
+
+    @Override public void onStayEnded(Stay stay) {
+        for (Registration registration : registrations) {
+            registration.executor.execute(() -> registration.observer.onStayEnded(stay));
+        }
+    }
+
+    private static final class Registration {
+        private final TripObserver observer;
+        private final Executor executor;
+
+        Registration(TripObserver observer, Executor executor){
+            this.observer = observer;
+            this.executor = executor;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Receives the trips and stays detected in the fix stream, see
+ * {@link LocationServiceConfiguration.Builder#tripSegmentation(boolean)}. Trips and stays
+ * alternate: a trip ends where a stay is detected, and when the fixes leave it the stay ends and
+ * the next trip starts.
+ */
+public interface TripObserver {
+    /**
+     * Called when the fixes leave a stay, just after {@link #onStayEnded}, or first move if no
+     * stay has been seen yet.
+     */
+    void onTripStarted(long timeMs, double latitude, double longitude);
+
+    /**
+     * Called when a stay is detected after a trip, just before {@link #onStayDetected}.
+     */
+    void onTripEnded(Trip trip);
+
+    /**
+     * Called once the fixes have dwelled within the stay radius for the minimum stay duration.
+     * The stay is still going on, so it has no departure time yet.
+     */
+    void onStayDetected(Stay stay);
+
+    /**
+     * Called when the fixes leave a stay, with the same stay as {@link #onStayDetected} now
+     * carrying its departure time and the mean of all its fixes.
+     */
+    void onStayEnded(Stay stay);
+}
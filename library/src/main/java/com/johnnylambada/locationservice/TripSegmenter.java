@@ -0,0 +1,144 @@
+package com.johnnylambada.locationservice;
+
+/**
+ * Splits the fix stream into stays and the trips between them, one fix at a time.
+ *
+ * A stay candidate starts at a fix and collects the following fixes while they stay within
+ * {@code radiusM} of the candidate's running mean. Once it spans {@code minDurationMs} it
+ * becomes a stay: the trip in progress ends there and the stay is reported. The first fix
+ * outside the radius ends the candidate, ending the stay and starting a trip if it was one, and
+ * starts a new candidate. The state is a handful of fields, so every fix costs O(1) and allocates nothing
+ * unless an event is reported. Not thread safe; the service feeds it from its worker thread.
+ */
+class TripSegmenter {
+
+    private enum State {
+        UNKNOWN,
+        STAYING,
+        MOVING
+    }
+
+    private final double radiusM;
+    private final long minDurationMs;
+    private final TripObserver observer;
+
+    private State state = State.UNKNOWN;
+
+    // The current stay candidate.
+    private boolean hasCandidate;
+    private long candidateStartMs;
+    private double candidateStartLat;
+    private double candidateStartLon;
+    private double candidateSumLat;
+    // Relative to candidateStartLon, so the mean holds across the antimeridian.
+    private double candidateSumLon;
+    private int candidateCount;
+    private long candidateLastMs;
+    // When the candidate became a stay, while STAYING.
+    private long candidateDetectedMs;
+    // The trip's distance and fix count when the candidate started.
+    private double candidateTripDistanceM;
+    private int candidateTripFixCount;
+
+    // The trip in progress while MOVING.
+    private long tripStartMs;
+    private double tripStartLat;
+    private double tripStartLon;
+    private double tripDistanceM;
+    private int tripFixCount;
+
+    private double lastLat;
+    private double lastLon;
+
+    TripSegmenter(double radiusM, long minDurationMs, TripObserver observer){
+        if (radiusM<=0){
+            throw new IllegalArgumentException("radiusM must be positive");
+        }
+        if (minDurationMs<=0){
+            throw new IllegalArgumentException("minDurationMs must be positive");
+        }
+        if (observer==null){
+            throw new IllegalArgumentException("observer can't be null");
+        }
+        this.radiusM = radiusM;
+        this.minDurationMs = minDurationMs;
+        this.observer = observer;
+    }
+
+    void add(long timeMs, double lat, double lon){
+        if (state == State.MOVING) {
+            tripDistanceM += GeoMath.equirectangular(lastLat, lastLon, lat, lon);
+            tripFixCount++;
+        }
+        lastLat = lat;
+        lastLon = lon;
+
+        if (hasCandidate && GeoMath.equirectangular(
+                candidateLat(), candidateLon(), lat, lon) <= radiusM) {
+            candidateSumLat += lat;
+            candidateSumLon += GeoMath.wrapLongitudeDelta(lon - candidateStartLon);
+            candidateCount++;
+            candidateLastMs = timeMs;
+            if (state != State.STAYING && candidateLastMs - candidateStartMs >= minDurationMs) {
+                enterStay(timeMs);
+            }
+            return;
+        }
+
+        // Left the candidate, or there was none yet.
+        if (state == State.STAYING) {
+            final double stayLat = candidateLat();
+            final double stayLon = candidateLon();
+            observer.onStayEnded(new Stay(candidateStartMs, candidateDetectedMs, candidateLastMs,
+                    stayLat, stayLon));
+            startTrip(candidateLastMs, stayLat, stayLon);
+            tripDistanceM = GeoMath.equirectangular(tripStartLat, tripStartLon, lat, lon);
+            tripFixCount = 1;
+        } else if (state == State.UNKNOWN && hasCandidate) {
+            startTrip(candidateStartMs, candidateStartLat, candidateStartLon);
+            tripDistanceM = GeoMath.equirectangular(tripStartLat, tripStartLon, lat, lon);
+            tripFixCount = candidateCount + 1;
+        }
+        hasCandidate = true;
+        candidateStartMs = timeMs;
+        candidateStartLat = lat;
+        candidateStartLon = lon;
+        candidateSumLat = lat;
+        candidateSumLon = 0;
+        candidateCount = 1;
+        candidateLastMs = timeMs;
+        candidateTripDistanceM = tripDistanceM;
+        candidateTripFixCount = tripFixCount;
+    }
+
+    private void enterStay(long timeMs){
+        final double lat = candidateLat();
+        final double lon = candidateLon();
+        if (state == State.MOVING) {
+            // The trip ends where the fixes arrived at the stay; the fixes within it don't count.
+            observer.onTripEnded(new Trip(
+                    tripStartMs, tripStartLat, tripStartLon,
+                    candidateStartMs, lat, lon,
+                    candidateTripDistanceM, candidateTripFixCount));
+        }
+        state = State.STAYING;
+        candidateDetectedMs = timeMs;
+        observer.onStayDetected(new Stay(candidateStartMs, timeMs, 0, lat, lon));
+    }
+
+    private void startTrip(long timeMs, double lat, double lon){
+        state = State.MOVING;
+        tripStartMs = timeMs;
+        tripStartLat = lat;
+        tripStartLon = lon;
+        observer.onTripStarted(timeMs, lat, lon);
+    }
+
+    private double candidateLat(){
+        return candidateSumLat / candidateCount;
+    }
+
+    private double candidateLon(){
+        return GeoMath.wrapLongitudeDelta(candidateStartLon + candidateSumLon / candidateCount);
+    }
+}